@@ -0,0 +1,159 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares bulk inserting weather rows with a compiled statement, like WeatherProvider does, to
+ * inserting them one db.insert() at a time, like it used to.  The rates are logged, filter
+ * logcat on this class to see them.
+ */
+@LargeTest
+public class BulkInsertBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = BulkInsertBenchmark.class.getSimpleName();
+
+    private static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // A sync's worth of days, a large backfill and a stress test
+    private static final int[] ROW_COUNTS = {14, 1000, 100000};
+
+    private SQLiteDatabase mDb;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // In memory, so the app's own database is left alone and the disk doesn't skew the
+        // comparison between runs
+        mDb = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(mDb);
+        mLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TEST_DATE + i * DAY_IN_MILLIS);
+            rows[i] = weatherValues;
+        }
+        return rows;
+    }
+
+    private int insertWithDbInsert(ContentValues[] rows) {
+        int count = 0;
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                ContentValues values = new ContentValues(row);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+                if (mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values) != -1) {
+                    count++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return count;
+    }
+
+    private int insertCompiled(ContentValues[] rows) {
+        CompiledInsert insert = new CompiledInsert(mDb, WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherProvider.WEATHER_COLUMNS, WeatherContract.WeatherEntry.COLUMN_DATE);
+        mDb.beginTransaction();
+        try {
+            int count = insert.insertAll(rows);
+            mDb.setTransactionSuccessful();
+            return count;
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+    }
+
+    private void deleteWeather() {
+        mDb.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    /**
+     * @return the stored rows, read out right away.  A cursor only runs its query once it is
+     *         read, after the table may have changed.
+     */
+    private List<String[]> readWeather() {
+        List<String[]> rows = new ArrayList<String[]>();
+        Cursor cursor = mDb.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherProvider.WEATHER_COLUMNS, null, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                String[] row = new String[cursor.getColumnCount()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = cursor.getString(i);
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    public void testCompiledInsertStoresTheSameRows() {
+        ContentValues[] rows = createRows(ROW_COUNTS[0]);
+        assertEquals(rows.length, insertWithDbInsert(rows));
+        List<String[]> expected = readWeather();
+        deleteWeather();
+        assertTrue("Error: the rows weren't deleted", readWeather().isEmpty());
+
+        assertEquals(rows.length, insertCompiled(rows));
+        List<String[]> actual = readWeather();
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            for (int i = 0; i < WeatherProvider.WEATHER_COLUMNS.length; i++) {
+                assertEquals("Error: column " + WeatherProvider.WEATHER_COLUMNS[i] + " differs",
+                        expected.get(row)[i], actual.get(row)[i]);
+            }
+        }
+    }
+
+    public void testRowsPerSecond() {
+        for (int rowCount : ROW_COUNTS) {
+            ContentValues[] rows = createRows(rowCount);
+
+            deleteWeather();
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(rowCount, insertWithDbInsert(rows));
+            long dbInsertMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+            deleteWeather();
+            start = SystemClock.elapsedRealtime();
+            assertEquals(rowCount, insertCompiled(rows));
+            long compiledMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+            Log.i(LOG_TAG, rowCount + " rows: db.insert() " + rowCount * 1000L / dbInsertMillis
+                    + " rows/s, compiled " + rowCount * 1000L / compiledMillis + " rows/s");
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the forecast list's query takes while a large sync write is in progress, in
+ * the rollback journal mode the database used to be in and in the write-ahead logging mode
+ * WeatherDbHelper puts it in now.  The latencies are logged, filter logcat on this class to see
+ * them.
+ */
+@LargeTest
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class DbContentionBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = DbContentionBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Far more than a sync writes, so the write lasts long enough to read against
+    private static final int WRITE_ROW_COUNT = 50000;
+
+    private static final String SYNCED_LOCATION = "94043";
+
+    private WeatherDbHelper mDbHelper;
+
+    private SQLiteDatabase mDb;
+
+    private long mSyncedLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void openDatabase(boolean writeAheadLogging) {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        if (!writeAheadLogging) {
+            mDb.disableWriteAheadLogging();
+        }
+
+        // The location on screen, with a forecast to read
+        long readLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(readLocationId));
+
+        // Another location, the one being synced
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                SYNCED_LOCATION);
+        mSyncedLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                locationValues);
+    }
+
+    private ContentValues[] createSyncRows() {
+        ContentValues[] rows = new ContentValues[WRITE_ROW_COUNT];
+        for (int i = 0; i < rows.length; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mSyncedLocationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            rows[i] = weatherValues;
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the rows in one transaction like WeatherProvider does, on a thread of its own.
+     *
+     * @param started counted down once the transaction holds the database
+     */
+    private Thread startWrite(final ContentValues[] rows, final CountDownLatch started) {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CompiledInsert insert = new CompiledInsert(mDb,
+                        WeatherContract.WeatherEntry.TABLE_NAME, WeatherProvider.WEATHER_COLUMNS,
+                        WeatherContract.WeatherEntry.COLUMN_DATE);
+                mDb.beginTransaction();
+                try {
+                    // The first row takes the write lock
+                    insert.insert(rows[0]);
+                    started.countDown();
+                    for (int i = 1; i < rows.length; i++) {
+                        insert.insert(rows[i]);
+                    }
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                    insert.close();
+                }
+            }
+        }, "SyncWrite");
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * @return how long each forecast list query took, in milliseconds, while the write went on
+     */
+    private List<Long> readDuringWrite() throws InterruptedException {
+        WeatherProvider.ProviderQuery query = WeatherProvider.buildQuery(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        ContentValues[] rows = createSyncRows();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread writer = startWrite(rows, started);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<Long> latencies = new ArrayList<Long>();
+        do {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mDb.rawQuery(query.mSql, query.mSelectionArgs);
+            try {
+                // The query only runs once the cursor is read
+                assertEquals("Error: the reader saw the wrong forecast", 1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            latencies.add(SystemClock.elapsedRealtime() - start);
+        } while (writer.isAlive());
+        writer.join();
+        return latencies;
+    }
+
+    private void logLatencies(String mode, List<Long> latencies) {
+        Collections.sort(latencies);
+        Log.i(LOG_TAG, mode + ": " + latencies.size() + " queries during a " + WRITE_ROW_COUNT
+                + " row write, p50 " + latencies.get(latencies.size() / 2)
+                + " ms, p95 " + latencies.get(latencies.size() * 95 / 100)
+                + " ms, max " + latencies.get(latencies.size() - 1) + " ms");
+    }
+
+    public void testReadLatencyDuringWrite() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // The journal mode can't be switched back and forth before
+            return;
+        }
+        openDatabase(false);
+        List<Long> journalLatencies = readDuringWrite();
+        mDbHelper.close();
+
+        openDatabase(true);
+        List<Long> walLatencies = readDuringWrite();
+
+        logLatencies("Rollback journal", journalLatencies);
+        logLatencies("Write-ahead log", walLatencies);
+    }
+}
@@ -15,9 +15,12 @@
  */
 package com.example.android.sunshine.app.data;
 
+import com.example.android.sunshine.app.BuildConfig;
+
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
@@ -55,6 +58,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncMetricsEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -177,6 +182,72 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    private boolean hasIndex(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{name});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testUpgradeAddsLocationDateIndexAndKeepsWeather() {
+        long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue("Error: a new database lacks the location and date index",
+                hasIndex(db, WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        // What a database of the version before looks like
+        db.execSQL("DROP INDEX " + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX);
+        dbHelper.onUpgrade(db, 6, 7);
+
+        assertTrue("Error: the upgrade didn't add the location and date index",
+                hasIndex(db, WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Error: the upgrade dropped the stored weather", 1, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    private static long readPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            assertTrue("Error: PRAGMA " + pragma + " returned nothing", cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testPragmasReachTheWritingConnection() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        // Inside a transaction the queries run on the connection that writes, not a reader's
+        db.beginTransaction();
+        try {
+            String[] levels = {"OFF", "NORMAL", "FULL", "EXTRA"};
+            assertEquals("Error: synchronous isn't " + BuildConfig.DB_SYNCHRONOUS
+                            + " on the connection that writes",
+                    BuildConfig.DB_SYNCHRONOUS, levels[(int) readPragma(db, "synchronous")]);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                // Older SQLite versions know neither a cache size in kibibytes nor the log
+                assertEquals("Error: cache_size isn't set on the connection that writes",
+                        -BuildConfig.DB_CACHE_SIZE_KB, readPragma(db, "cache_size"));
+                assertEquals("Error: wal_autocheckpoint isn't set on the connection that writes",
+                        BuildConfig.DB_WAL_AUTOCHECKPOINT_PAGES,
+                        readPragma(db, "wal_autocheckpoint"));
+            }
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -16,17 +16,28 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.RemoteException;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -56,6 +67,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -512,4 +528,196 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Midnight local time on December 21st, 2014, in seconds
+    static final long HOURLY_FIRST_STEP =
+            1419120000L - TimeZone.getDefault().getOffset(1419120000000L) / 1000;
+
+    // Three days of 3 hour steps, starting at HOURLY_FIRST_STEP
+    static ContentValues[] createBulkInsertHourlyValues(long locationRowId) {
+        ContentValues[] returnContentValues = new ContentValues[24];
+        for (int i = 0; i < returnContentValues.length; i++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            hourlyValues.put(HourlyEntry.COLUMN_TIME, HOURLY_FIRST_STEP + i * 3 * 60 * 60);
+            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, i % 8 == 4 ? 500 : 800);
+            // 10.00 to 17.00 degrees over the day
+            hourlyValues.put(HourlyEntry.COLUMN_TEMP, 1000 + (i % 8) * 100);
+            hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, 70 + i % 8);
+            hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, 10215);
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 120 + i % 8);
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 301);
+            returnContentValues[i] = hourlyValues;
+        }
+        return returnContentValues;
+    }
+
+    public void testBulkInsertHourly() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertHourlyValues(locationRowId);
+        int insertCount = mContext.getContentResolver()
+                .bulkInsert(HourlyEntry.CONTENT_URI, bulkInsertContentValues);
+        assertEquals(bulkInsertContentValues.length, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(bulkInsertContentValues.length, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testBulkInsertHourly.  Error validating HourlyEntry",
+                cursor, bulkInsertContentValues[0]);
+        cursor.close();
+
+        // The daily view is derived from the steps, one row per day
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationDaily(TestUtilities.TEST_LOCATION),
+                new String[]{HourlyEntry.COLUMN_DATE, HourlyEntry.COLUMN_MIN_TEMP,
+                        HourlyEntry.COLUMN_MAX_TEMP, HourlyEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        assertEquals("Error: the steps were not grouped into days", 3, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(WeatherContract.normalizeDate(HOURLY_FIRST_STEP * 1000), cursor.getLong(0));
+        assertEquals(10.0, cursor.getDouble(1), 1e-9);
+        assertEquals(17.0, cursor.getDouble(2), 1e-9);
+        assertEquals("Error: the day should take its most eventful condition",
+                500, cursor.getInt(3));
+        cursor.close();
+    }
+
+    public void testHourlyDaysFollowDaylightSavingTime() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        try {
+            long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+            // Midnight on November 1st, 2014, the clocks went back an hour the next night
+            long firstStep = 1414825200L;
+            ContentValues[] steps = createBulkInsertHourlyValues(locationRowId);
+            for (int i = 0; i < steps.length; i++) {
+                steps[i].put(HourlyEntry.COLUMN_TIME, firstStep + i * 3 * 60 * 60);
+            }
+            // 48 hours on is 11 PM on the 2nd, not midnight on the 3rd
+            steps[16].put(HourlyEntry.COLUMN_TEMP, 3000);
+            mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, steps);
+
+            Cursor cursor = mContext.getContentResolver().query(
+                    HourlyEntry.buildHourlyLocationDaily(TestUtilities.TEST_LOCATION),
+                    new String[]{HourlyEntry.COLUMN_DATE, HourlyEntry.COLUMN_MAX_TEMP},
+                    null, null, HourlyEntry.COLUMN_DATE + " ASC");
+            try {
+                assertEquals(3, cursor.getCount());
+                cursor.moveToPosition(1);
+                assertEquals(WeatherContract.normalizeDate((firstStep + 24 * 60 * 60) * 1000),
+                        cursor.getLong(0));
+                assertEquals("Error: the step after the change was counted in the wrong day",
+                        30.0, cursor.getDouble(1), 1e-9);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    // A sync's worth of operations: a new location and its weather, referring back to it
+    private ArrayList<ContentProviderOperation> createSyncOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // The location's row ID isn't known yet, a placeholder is replaced by the back reference
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(-1)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testApplyBatch() throws Exception {
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createSyncOperations());
+
+        // Told once the whole batch committed
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: the weather wasn't stored with the new location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry",
+                cursor, createBulkInsertWeatherValues(locationRowId)[0]);
+        cursor.close();
+    }
+
+    public void testFailedApplyBatchStoresNothing() {
+        ArrayList<ContentProviderOperation> operations = createSyncOperations();
+        // Updates no row, so the batch fails after everything else was applied
+        operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_HUMIDITY, 1.3)
+                .withSelection(WeatherEntry._ID + " = ?", new String[]{"-1"})
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException | RemoteException e) {
+            // expected
+        }
+
+        assertEquals("Error: a failed batch left locations behind",
+                0, countRows(LocationEntry.CONTENT_URI));
+        assertEquals("Error: a failed batch left weather behind",
+                0, countRows(WeatherEntry.CONTENT_URI));
+    }
+
+    private void queryWithMaxAge(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.withMaxAge(WeatherEntry.buildWeatherLocation(locationSetting), 3600),
+                null, null, null, null);
+        assertNotNull(cursor);
+        cursor.close();
+    }
+
+    public void testStaleForecastAsksForOneSyncPerLocation() {
+        final List<String> requested = new ArrayList<String>();
+        WeatherProvider.setStaleForecastHook(new WeatherProvider.StaleForecastHook() {
+            @Override
+            public void onStaleForecast(Context context, String locationSetting) {
+                requested.add(locationSetting);
+            }
+        });
+        try {
+            // Never fetched, so as stale as it gets
+            queryWithMaxAge("stale-first");
+            queryWithMaxAge("stale-first");
+            queryWithMaxAge("stale-second");
+        } finally {
+            WeatherProvider.setStaleForecastHook(null);
+        }
+        assertEquals("Error: a location asked for a sync on every query, or another location's "
+                        + "request held it back",
+                Arrays.asList("stale-first", "stale-second"), requested);
+    }
 }
@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.data;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.QueryCacheEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final Uri TEST_FORECAST_URI = WeatherEntry.buildWeatherLocationWithStartDate(
+            TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(mLocationId));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long readCounter(String column) {
+        Cursor cursor = mContext.getContentResolver().query(
+                QueryCacheEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private double queryHumidity() {
+        Cursor cursor = mContext.getContentResolver().query(TEST_FORECAST_URI,
+                new String[]{WeatherEntry.COLUMN_HUMIDITY}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals("Error: the forecast should have one day", 1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRepeatedQueryIsAHit() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Nothing is cached before
+            return;
+        }
+        double humidity = queryHumidity();
+        long hits = readCounter(QueryCacheEntry.COLUMN_HITS);
+
+        assertEquals(humidity, queryHumidity(), 1e-9);
+        assertEquals("Error: the same query again should have come from the cache",
+                hits + 1, readCounter(QueryCacheEntry.COLUMN_HITS));
+    }
+
+    public void testWriteToTheLocationMakesTheEntryStale() {
+        queryHumidity();
+        long stale = readCounter(QueryCacheEntry.COLUMN_STALE);
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationId);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 42.5);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues});
+
+        assertEquals("Error: the cache served the forecast from before the write",
+                42.5, queryHumidity(), 1e-9);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertEquals(stale + 1, readCounter(QueryCacheEntry.COLUMN_STALE));
+        }
+    }
+
+    public void testWriteToAnotherLocationKeepsTheEntry() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long otherLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, locationValues));
+        queryHumidity();
+        long hits = readCounter(QueryCacheEntry.COLUMN_HITS);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{TestUtilities.createWeatherValues(otherLocationId)});
+
+        queryHumidity();
+        assertEquals("Error: a write to another location made the entry stale",
+                hits + 1, readCounter(QueryCacheEntry.COLUMN_HITS));
+    }
+
+    public void testValidatorsOfAnotherLocationKeepTheEntry() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long otherLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, locationValues));
+        queryHumidity();
+        long hits = readCounter(QueryCacheEntry.COLUMN_HITS);
+
+        // What a sync or a revalidation of the other location writes
+        ContentValues validatorValues = new ContentValues();
+        validatorValues.put(LocationEntry.COLUMN_ETAG, "\"abc\"");
+        validatorValues.put(LocationEntry.COLUMN_LAST_FETCH, System.currentTimeMillis());
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, validatorValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(otherLocationId)});
+
+        queryHumidity();
+        assertEquals("Error: updating another location made the entry stale",
+                hits + 1, readCounter(QueryCacheEntry.COLUMN_HITS));
+
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, validatorValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationId)});
+
+        long stale = readCounter(QueryCacheEntry.COLUMN_STALE);
+        queryHumidity();
+        assertEquals("Error: updating the location kept its entry",
+                stale + 1, readCounter(QueryCacheEntry.COLUMN_STALE));
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.sunshine.app.data;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL the provider builds for each of its URIs, with the
+    selections the app actually uses.  The queries loaders and syncs run over and over have to
+    find their rows through an index: one that falls back to scanning a table gets slower with
+    every location and day stored, which nothing else would notice.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String[] LOCATION_ID_ARGS = {"1"};
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The plan only depends on the schema, an empty database in memory will do
+        mDb = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private static class PlanCase {
+
+        final String mName;
+
+        final Uri mUri;
+
+        final String mSelection;
+
+        final String[] mSelectionArgs;
+
+        final String mSortOrder;
+
+        // Whether the query reads the whole table by design, so a scan is what it should do
+        final boolean mScanExpected;
+
+        PlanCase(String name, Uri uri, String selection, String[] selectionArgs,
+                String sortOrder, boolean scanExpected) {
+            mName = name;
+            mUri = uri;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mScanExpected = scanExpected;
+        }
+    }
+
+    private static List<PlanCase> createPlanCases() {
+        List<PlanCase> cases = new ArrayList<PlanCase>();
+        // The forecast list
+        cases.add(new PlanCase("weather by location from a date",
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", false));
+        cases.add(new PlanCase("weather by location",
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", false));
+        // The detail view, the widgets and the notification
+        cases.add(new PlanCase("weather by location and day",
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                null, null, null, false));
+        // What the sync diffs a new forecast against
+        cases.add(new PlanCase("weather by location id from a date", WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (?) AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)}, null, false));
+        cases.add(new PlanCase("all weather", WeatherEntry.CONTENT_URI,
+                null, null, null, true));
+        cases.add(new PlanCase("hourly by location",
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, false));
+        cases.add(new PlanCase("hourly days by location",
+                HourlyEntry.buildHourlyLocationDaily(TestUtilities.TEST_LOCATION),
+                null, null, null, false));
+        cases.add(new PlanCase("hourly by location id", HourlyEntry.CONTENT_URI,
+                HourlyEntry.COLUMN_LOC_KEY + " = ?", LOCATION_ID_ARGS, null, false));
+        cases.add(new PlanCase("all hourly", HourlyEntry.CONTENT_URI,
+                null, null, null, true));
+        // How the sync finds the row of a location setting
+        cases.add(new PlanCase("location by setting", LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null, false));
+        cases.add(new PlanCase("all locations", LocationEntry.CONTENT_URI,
+                null, null, null, true));
+        // Only read to look at recent syncs, and kept short
+        cases.add(new PlanCase("all sync metrics", SyncMetricsEntry.CONTENT_URI,
+                null, null, SyncMetricsEntry.COLUMN_SYNC_START + " DESC", true));
+        return cases;
+    }
+
+    private List<String> explain(WeatherProvider.ProviderQuery query) {
+        List<String> details = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.mSql, query.mSelectionArgs);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return details;
+    }
+
+    public void testEveryUriHasAPlanCase() {
+        Set<Integer> covered = new HashSet<Integer>();
+        for (PlanCase planCase : createPlanCases()) {
+            covered.add(WeatherProvider.buildUriMatcher().match(planCase.mUri));
+        }
+        int[] matches = {WeatherProvider.WEATHER, WeatherProvider.WEATHER_WITH_LOCATION,
+                WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE, WeatherProvider.HOURLY,
+                WeatherProvider.HOURLY_WITH_LOCATION, WeatherProvider.HOURLY_DAILY_WITH_LOCATION,
+                WeatherProvider.LOCATION, WeatherProvider.SYNC_METRICS};
+        for (int match : matches) {
+            assertTrue("Error: no query plan is checked for URI match " + match,
+                    covered.contains(match));
+        }
+    }
+
+    public void testHotQueriesDontScanTables() {
+        for (PlanCase planCase : createPlanCases()) {
+            List<String> details = explain(WeatherProvider.buildQuery(planCase.mUri, null,
+                    planCase.mSelection, planCase.mSelectionArgs, planCase.mSortOrder));
+            assertFalse("Error: no plan for " + planCase.mName, details.isEmpty());
+            if (planCase.mScanExpected) {
+                continue;
+            }
+            for (String detail : details) {
+                // "SCAN TABLE weather" on older SQLite, "SCAN weather" on newer ones
+                assertFalse("Error: " + planCase.mName + " scans a table: " + details,
+                        detail.startsWith("SCAN "));
+            }
+        }
+    }
+
+    public void testWeatherByLocationUsesTheLocationDateIndex() {
+        List<String> details = explain(WeatherProvider.buildQuery(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC"));
+        boolean usesIndex = false;
+        for (String detail : details) {
+            usesIndex |= detail.contains(WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX);
+        }
+        assertTrue("Error: the forecast list doesn't use "
+                + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX + ": " + details, usesIndex);
+    }
+}
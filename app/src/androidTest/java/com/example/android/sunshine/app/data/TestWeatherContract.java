@@ -42,4 +42,31 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testMaxAge() {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE);
+        assertEquals("Error: a weather Uri without max age reported one",
+                -1, WeatherContract.WeatherEntry.getMaxAgeFromUri(weatherUri));
+
+        Uri maxAgeUri = WeatherContract.WeatherEntry.withMaxAge(weatherUri, 3600);
+        assertEquals(3600, WeatherContract.WeatherEntry.getMaxAgeFromUri(maxAgeUri));
+        assertEquals("Error: the max age changed the location",
+                TEST_WEATHER_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(maxAgeUri));
+        assertEquals("Error: the max age changed the start date",
+                WeatherContract.WeatherEntry.getStartDateFromUri(weatherUri),
+                WeatherContract.WeatherEntry.getStartDateFromUri(maxAgeUri));
+        assertEquals("Error: the max age changed how the Uri is matched",
+                WeatherProvider.WEATHER_WITH_LOCATION,
+                WeatherProvider.buildUriMatcher().match(maxAgeUri));
+    }
+
+    public void testIsStale() {
+        long now = TEST_WEATHER_DATE * 1000;
+        assertFalse(WeatherContract.LocationEntry.isStale(now - 1000, 3600, now));
+        assertTrue(WeatherContract.LocationEntry.isStale(now - 3601 * 1000, 3600, now));
+        assertTrue("Error: a location never fetched was not stale",
+                WeatherContract.LocationEntry.isStale(0, 3600, now));
+    }
 }
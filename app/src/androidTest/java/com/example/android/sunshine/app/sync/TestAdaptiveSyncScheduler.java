@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    // Somebody looked a few hours ago, in the middle of the day
+    private static final long VIEWED_A_WHILE_AGO = 3 * HOUR_IN_MILLIS;
+
+    private static final int NOON = 12;
+
+    public void testWidensWhenNothingChanges() {
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        interval = AdaptiveSyncScheduler.getNextInterval(interval, false, VIEWED_A_WHILE_AGO, NOON);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 2, interval);
+
+        for (int i = 0; i < 10; i++) {
+            interval = AdaptiveSyncScheduler.getNextInterval(interval, false, VIEWED_A_WHILE_AGO,
+                    NOON);
+        }
+        assertEquals("Error: the interval grew past its maximum",
+                AdaptiveSyncScheduler.MAX_INTERVAL, interval);
+    }
+
+    public void testTightensWhenTheForecastChanges() {
+        int interval = AdaptiveSyncScheduler.getNextInterval(SunshineSyncAdapter.SYNC_INTERVAL,
+                true, VIEWED_A_WHILE_AGO, NOON);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL / 2, interval);
+
+        interval = AdaptiveSyncScheduler.getNextInterval(interval, true, VIEWED_A_WHILE_AGO, NOON);
+        assertEquals("Error: the interval shrank past its minimum",
+                AdaptiveSyncScheduler.MIN_INTERVAL, interval);
+    }
+
+    public void testActiveUseSyncsMostOften() {
+        assertEquals(AdaptiveSyncScheduler.MIN_INTERVAL,
+                AdaptiveSyncScheduler.getNextInterval(AdaptiveSyncScheduler.MAX_INTERVAL, false,
+                        10 * 60 * 1000, NOON));
+    }
+
+    public void testNightAndIdleSyncLess() {
+        assertEquals("Error: the night did not slow the sync down",
+                AdaptiveSyncScheduler.IDLE_INTERVAL,
+                AdaptiveSyncScheduler.getNextInterval(AdaptiveSyncScheduler.MIN_INTERVAL, true,
+                        VIEWED_A_WHILE_AGO, 3));
+        assertEquals("Error: nobody looking did not slow the sync down",
+                AdaptiveSyncScheduler.IDLE_INTERVAL,
+                AdaptiveSyncScheduler.getNextInterval(AdaptiveSyncScheduler.MIN_INTERVAL, true,
+                        Long.MAX_VALUE, NOON));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final String TEST_ENDPOINT = "test";
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences("test_circuit_breaker", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private void failUntilOpen(CircuitBreaker breaker) {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue("Error: the breaker opened too early", breaker.allowRequest());
+            breaker.onFailure();
+        }
+    }
+
+    public void testOpensAfterRepeatedFailuresAndSurvivesRestart() {
+        CircuitBreaker breaker = new CircuitBreaker(mPrefs, TEST_ENDPOINT,
+                CircuitBreaker.BASE_OPEN_MILLIS);
+        failUntilOpen(breaker);
+        assertFalse("Error: an open breaker let a request through", breaker.allowRequest());
+
+        // As if the process had been restarted
+        CircuitBreaker restored = new CircuitBreaker(mPrefs, TEST_ENDPOINT,
+                CircuitBreaker.BASE_OPEN_MILLIS);
+        assertFalse("Error: the open breaker was forgotten", restored.allowRequest());
+    }
+
+    public void testHalfOpenLetsOneTrialThrough() {
+        // Opens for no time at all, so the trial is due right away
+        CircuitBreaker breaker = new CircuitBreaker(mPrefs, TEST_ENDPOINT, 0);
+        failUntilOpen(breaker);
+
+        assertTrue("Error: no trial request was let through", breaker.allowRequest());
+        assertFalse("Error: a second trial ran alongside the first", breaker.allowRequest());
+
+        breaker.onSuccess();
+        // Closed again, requests no longer wait for each other
+        assertTrue(breaker.allowRequest());
+        assertTrue("Error: the breaker stayed half open after a successful trial",
+                breaker.allowRequest());
+    }
+
+    public void testSuccessResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(mPrefs, TEST_ENDPOINT,
+                CircuitBreaker.BASE_OPEN_MILLIS);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.onFailure();
+        }
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertTrue("Error: failures with a success in between opened the breaker",
+                breaker.allowRequest());
+    }
+
+    public void testBackoffGrowsWithJitter() {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            long backoff = CircuitBreaker.getBackoffMillis(attempt, 1000, 10 * 1000);
+            long ceiling = Math.min(1000L << attempt, 10 * 1000);
+            assertTrue("Error: backoff " + backoff + " out of range for attempt " + attempt,
+                    backoff >= ceiling / 2 && backoff <= ceiling);
+        }
+        assertTrue(CircuitBreaker.getBackoffMillis(100, 1000, 10 * 1000) <= 10 * 1000);
+    }
+}
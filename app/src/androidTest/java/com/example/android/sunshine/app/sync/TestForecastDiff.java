@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ContentValues createWeatherValues(int day, double maxTemp) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                TEST_DATE + day * DAY_IN_MILLIS);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 301.0);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 76);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1021.5);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 4.2);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 1.2);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        return weatherValues;
+    }
+
+    public void testOnlyChangedDaysAreReported() {
+        ContentValues[] stored = new ContentValues[3];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = createWeatherValues(i, 12.8);
+        }
+        mContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, stored);
+
+        List<ContentValues> incoming = new ArrayList<ContentValues>();
+        incoming.add(createWeatherValues(0, 12.8));
+        incoming.add(createWeatherValues(1, 13.9));
+        incoming.add(createWeatherValues(2, 12.8));
+        incoming.add(createWeatherValues(3, 12.8));
+
+        ForecastDiff diff = ForecastDiff.compute(mContext.getContentResolver(), incoming);
+
+        assertEquals(2, diff.mUnchanged);
+        assertEquals(2, diff.mChanged.size());
+        assertEquals("Error: a changed day was not reported", TEST_DATE + DAY_IN_MILLIS,
+                (long) diff.mChanged.get(0).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        assertEquals("Error: a new day was not reported", TEST_DATE + 3 * DAY_IN_MILLIS,
+                (long) diff.mChanged.get(1).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+    }
+
+    public void testLeftOutColumnsCountAsUnchanged() {
+        ContentValues[] stored = new ContentValues[]{createWeatherValues(0, 12.8)};
+        mContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, stored);
+
+        // Current conditions only, like the group endpoint has them
+        ContentValues conditions = createWeatherValues(0, 12.8);
+        conditions.remove(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        conditions.remove(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        List<ContentValues> incoming = new ArrayList<ContentValues>();
+        incoming.add(conditions);
+
+        assertTrue(ForecastDiff.compute(mContext.getContentResolver(), incoming).isEmpty());
+    }
+
+    public void testSameForecastIsEmpty() {
+        ContentValues[] stored = new ContentValues[]{createWeatherValues(0, 12.8)};
+        mContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, stored);
+
+        List<ContentValues> incoming = new ArrayList<ContentValues>();
+        incoming.add(createWeatherValues(0, 12.8));
+
+        assertTrue(ForecastDiff.compute(mContext.getContentResolver(), incoming).isEmpty());
+    }
+}
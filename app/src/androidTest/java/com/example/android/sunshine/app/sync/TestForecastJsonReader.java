@@ -0,0 +1,97 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonReader extends AndroidTestCase {
+
+    // A trimmed down daily forecast, with the fields we don't store left in to be skipped.
+    static final String TEST_FORECAST_JSON = "{\"city\":{\"id\":5375480,"
+            + "\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},"
+            + "\"country\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0107,"
+            + "\"cnt\":2,\"list\":["
+            + "{\"dt\":1419105600,\"temp\":{\"day\":10.5,\"min\":4.2,\"max\":12.8,"
+            + "\"night\":4.2,\"eve\":8.9,\"morn\":10.5},\"pressure\":1021.5,\"humidity\":76,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\","
+            + "\"icon\":\"01d\"}],\"speed\":1.2,\"deg\":301,\"clouds\":0},"
+            + "{\"dt\":1419192000,\"temp\":{\"day\":11.5,\"min\":5.2,\"max\":13.8,"
+            + "\"night\":5.2,\"eve\":9.9,\"morn\":11.5},\"pressure\":1019.1,\"humidity\":80,"
+            + "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\","
+            + "\"icon\":\"10d\"}],\"speed\":3.4,\"deg\":180,\"clouds\":40,\"rain\":1.5}]}";
+
+    private static class RecordingCallback implements ForecastJsonReader.Callback {
+        long mCityId;
+        String mCityName;
+        double mLat;
+        double mLon;
+        final List<ContentValues> mDays = new ArrayList<ContentValues>();
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            mCityId = cityId;
+            mCityName = cityName;
+            mLat = lat;
+            mLon = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues weatherValues) {
+            assertEquals("Error: days not emitted in order", mDays.size(), dayIndex);
+            mDays.add(weatherValues);
+        }
+    }
+
+    private static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testReadForecast() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        int code = new ForecastJsonReader(callback).read(stream(TEST_FORECAST_JSON));
+
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        assertEquals(5375480, callback.mCityId);
+        assertEquals("Mountain View", callback.mCityName);
+        assertEquals(37.386051, callback.mLat, 1e-9);
+        assertEquals(-122.083847, callback.mLon, 1e-9);
+        assertEquals(2, callback.mDays.size());
+
+        ContentValues day = callback.mDays.get(1);
+        assertEquals(13.8, day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP), 1e-9);
+        assertEquals(5.2, day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP), 1e-9);
+        assertEquals(80, (int) day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_HUMIDITY));
+        assertEquals(500, (int) day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Rain", day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals("Error: fields we don't store should be skipped", 8, day.size());
+    }
+
+    public void testErrorCodeStopsReading() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        int code = new ForecastJsonReader(callback)
+                .read(stream("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"));
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, code);
+        assertNull(callback.mCityName);
+        assertTrue(callback.mDays.isEmpty());
+    }
+
+    public void testMalformedResponse() throws Exception {
+        try {
+            new ForecastJsonReader(new RecordingCallback())
+                    .read(stream("{\"city\":{\"name\":\"Nowhere\"},\"list\":[]}"));
+            fail("Error: an incomplete city should be reported as invalid JSON");
+        } catch (JSONException expected) {
+        }
+    }
+}
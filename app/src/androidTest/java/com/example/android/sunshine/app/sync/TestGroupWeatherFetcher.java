@@ -0,0 +1,135 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import org.json.JSONException;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TestGroupWeatherFetcher extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestGroupWeatherFetcher.class.getSimpleName();
+
+    private static final int CITY_COUNT = 12;
+
+    private static final long FIRST_CITY_ID = 5375480;
+
+    // Roughly what one round trip to the weather servers costs
+    private static final long SERVER_LATENCY_MILLIS = 100;
+
+    private LocalHttpServer mServer;
+
+    private List<Long> mCityIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Answers a group request with current weather for every id it asks for
+        mServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(String path,
+                    Map<String, String> requestHeaders) {
+                String ids = Uri.parse(path).getQueryParameter("id");
+                if (ids.contains(String.valueOf(FIRST_CITY_ID + CITY_COUNT))) {
+                    return new LocalHttpServer.Response(200,
+                            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+                }
+                return new LocalHttpServer.Response(200, groupJson(ids.split(",")))
+                        .delay(SERVER_LATENCY_MILLIS).gzip();
+            }
+        });
+        mServer.start();
+
+        mCityIds = new ArrayList<Long>();
+        for (int i = 0; i < CITY_COUNT; i++) {
+            mCityIds.add(FIRST_CITY_ID + i);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String groupJson(String[] ids) {
+        StringBuilder json = new StringBuilder("{\"cnt\":").append(ids.length)
+                .append(",\"list\":[");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"coord\":{\"lon\":-122.08,\"lat\":37.39},\"sys\":{\"country\":\"US\"},")
+                    .append("\"weather\":[{\"id\":800,\"main\":\"Clear\",")
+                    .append("\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"main\":{\"temp\":10.5,\"pressure\":1021.5,\"humidity\":76,")
+                    .append("\"temp_min\":4.2,\"temp_max\":12.8},")
+                    .append("\"wind\":{\"speed\":1.2,\"deg\":301},\"clouds\":{\"all\":0},")
+                    .append("\"dt\":1419105600,\"id\":").append(ids[i])
+                    .append(",\"name\":\"City ").append(ids[i]).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private GroupWeatherFetcher newFetcher(int citiesPerRequest) {
+        return new GroupWeatherFetcher(new SyncHttpClient(), mServer.getBaseUrl() + "/group",
+                "test-key", citiesPerRequest);
+    }
+
+    public void testGroupResponseIsSplitPerCity() throws Exception {
+        Map<Long, ContentValues> weatherByCity =
+                newFetcher(GroupWeatherFetcher.MAX_CITIES_PER_REQUEST).fetch(mCityIds);
+
+        assertEquals(CITY_COUNT, weatherByCity.size());
+        ContentValues weather = weatherByCity.get(FIRST_CITY_ID);
+        assertFalse("Error: the observation spread would overwrite the forecast's high",
+                weather.containsKey(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+        assertFalse("Error: the observation spread would overwrite the forecast's low",
+                weather.containsKey(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        assertEquals(76, (int) weather.getAsInteger(WeatherContract.WeatherEntry.COLUMN_HUMIDITY));
+        assertEquals(800,
+                (int) weather.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Clear", weather.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals("Error: fields we don't store should be skipped", 6, weather.size());
+    }
+
+    public void testBatchedFetchUsesFewerRequests() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        newFetcher(1).fetch(mCityIds);
+        long perCityMillis = SystemClock.elapsedRealtime() - start;
+        int perCityRequests = mServer.getRequestCount();
+
+        start = SystemClock.elapsedRealtime();
+        newFetcher(5).fetch(mCityIds);
+        long batchedMillis = SystemClock.elapsedRealtime() - start;
+        int batchedRequests = mServer.getRequestCount() - perCityRequests;
+
+        Log.i(LOG_TAG, CITY_COUNT + " cities: per-city " + perCityRequests + " requests in "
+                + perCityMillis + "ms, batched " + batchedRequests + " requests in "
+                + batchedMillis + "ms");
+        assertEquals(CITY_COUNT, perCityRequests);
+        assertEquals("Error: cities were not batched 5 to a request", 3, batchedRequests);
+        assertTrue("Error: batching did not save any time", batchedMillis < perCityMillis);
+    }
+
+    public void testErrorCodeFailsTheBatch() throws Exception {
+        mCityIds.add(FIRST_CITY_ID + CITY_COUNT);
+        try {
+            newFetcher(GroupWeatherFetcher.MAX_CITIES_PER_REQUEST).fetch(mCityIds);
+            fail("Error: an error code in the response should fail the fetch");
+        } catch (JSONException unexpected) {
+            fail("Error: an error code should be reported as an IOException");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.Map;
+
+public class TestHedgedWeatherSource extends AndroidTestCase {
+
+    private static final String PRIMARY_CITY = "Mountain View";
+    private static final String SECONDARY_CITY = "Palo Alto";
+
+    private static final SyncLocation TEST_LOCATION = SyncLocation.forLocationSetting("94043");
+
+    private LocalHttpServer mPrimaryServer;
+    private LocalHttpServer mSecondaryServer;
+
+    private volatile long mPrimaryDelayMillis;
+    private volatile int mPrimaryCode;
+
+    private SharedPreferences mPrefs;
+
+    // One token an hour, nothing comes back during a test
+    private TokenBucket mTokenBucket;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences("test_hedged_weather_source",
+                Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mTokenBucket = new TokenBucket(mPrefs, "test", 1, 5);
+        mPrimaryDelayMillis = 0;
+        mPrimaryCode = 200;
+        mPrimaryServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(String path,
+                    Map<String, String> requestHeaders) {
+                String body = mPrimaryCode == 200
+                        ? TestForecastJsonReader.TEST_FORECAST_JSON : "Internal error";
+                return new LocalHttpServer.Response(mPrimaryCode, body)
+                        .delay(mPrimaryDelayMillis);
+            }
+        });
+        mPrimaryServer.start();
+        mSecondaryServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(String path,
+                    Map<String, String> requestHeaders) {
+                return new LocalHttpServer.Response(200,
+                        TestForecastJsonReader.TEST_FORECAST_JSON
+                                .replace(PRIMARY_CITY, SECONDARY_CITY))
+                        .header("ETag", "\"secondary\"")
+                        .delay(100);
+            }
+        });
+        mSecondaryServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrimaryServer.shutdown();
+        mSecondaryServer.shutdown();
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private HedgedWeatherSource newSource(long hedgeDelayMillis) {
+        SyncHttpClient httpClient = new SyncHttpClient();
+        return new HedgedWeatherSource(
+                new OwmWeatherSource(getContext(), httpClient,
+                        mPrimaryServer.getBaseUrl() + "/forecast/daily", "key"),
+                new OwmWeatherSource(getContext(), httpClient,
+                        mSecondaryServer.getBaseUrl() + "/forecast/daily", "key"),
+                mTokenBucket, hedgeDelayMillis);
+    }
+
+    private static WeatherSource.Forecast fetch(WeatherSource source) throws Exception {
+        return source.fetchForecast(TEST_LOCATION, ForecastValidators.NONE,
+                new SyncMetrics(System.currentTimeMillis()));
+    }
+
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        WeatherSource.Forecast forecast = fetch(newSource(1000));
+
+        assertEquals(PRIMARY_CITY, forecast.mCityName);
+        assertEquals(2, forecast.mDays.size());
+        assertEquals("Error: the secondary was asked although the primary answered in time",
+                0, mSecondaryServer.getRequestCount());
+    }
+
+    public void testSlowPrimaryIsHedged() throws Exception {
+        mPrimaryDelayMillis = 3000;
+        long start = SystemClock.elapsedRealtime();
+        WeatherSource.Forecast forecast = fetch(newSource(300));
+
+        assertEquals(SECONDARY_CITY, forecast.mCityName);
+        assertTrue("Error: the hedged fetch waited for the slow primary",
+                SystemClock.elapsedRealtime() - start < 2000);
+        assertEquals(1, mPrimaryServer.getRequestCount());
+        assertEquals(1, mSecondaryServer.getRequestCount());
+        assertTrue(mTokenBucket.tryAcquire(4));
+        assertFalse("Error: the secondary's request took no token", mTokenBucket.tryAcquire(1));
+        assertTrue("Error: the secondary's validators would be sent to the primary",
+                forecast.mValidators.isEmpty());
+    }
+
+    public void testNoHedgeWithoutAToken() throws Exception {
+        assertTrue(mTokenBucket.tryAcquire(5));
+        mPrimaryDelayMillis = 1000;
+        WeatherSource.Forecast forecast = fetch(newSource(300));
+
+        assertEquals("Error: the primary's answer wasn't waited for",
+                PRIMARY_CITY, forecast.mCityName);
+        assertEquals("Error: the secondary was asked over the request rate",
+                0, mSecondaryServer.getRequestCount());
+    }
+
+    public void testFailingPrimaryFailsOver() throws Exception {
+        mPrimaryCode = 500;
+        WeatherSource.Forecast forecast = fetch(newSource(60 * 1000));
+
+        assertEquals("Error: the secondary wasn't asked when the primary failed",
+                SECONDARY_CITY, forecast.mCityName);
+    }
+
+    public void testHedgeDelayFollowsPrimaryLatency() {
+        HedgedWeatherSource source = newSource(1234);
+        for (int i = 1; i < HedgedWeatherSource.MIN_LATENCY_SAMPLES; i++) {
+            source.onPrimaryAnswered(i);
+        }
+        assertEquals("Error: too few samples should leave the default delay",
+                1234, source.getHedgeDelayMillis());
+
+        // Only the last 50 count, 51 to 100, whose 95th percentile is 98
+        for (int i = 1; i <= 100; i++) {
+            source.onPrimaryAnswered(i * 10);
+        }
+        assertEquals(980, source.getHedgeDelayMillis());
+
+        for (int i = 0; i < HedgedWeatherSource.MAX_LATENCY_SAMPLES; i++) {
+            source.onPrimaryAnswered(1);
+        }
+        assertEquals(HedgedWeatherSource.MIN_HEDGE_DELAY_MILLIS, source.getHedgeDelayMillis());
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+public class TestPipelinedInserter extends AndroidTestCase {
+
+    private static final long TEST_TIME = 1419033600L;  // December 20th, 2014
+
+    private static final long STEP_SECONDS = 3 * 60 * 60;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ContentValues createStep(int step) {
+        ContentValues stepValues = new ContentValues();
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, mLocationId);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, TEST_TIME + step * STEP_SECONDS);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, 800);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP, 1050);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, 76);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, 10215);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, 120);
+        stepValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 301);
+        return stepValues;
+    }
+
+    private int countSteps() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testAllRowsAreInserted() {
+        SyncCancellation cancellation = new SyncCancellation(Long.MAX_VALUE);
+        PipelinedInserter inserter = new PipelinedInserter(mContext.getContentResolver(),
+                WeatherContract.HourlyEntry.CONTENT_URI, 8, 2, cancellation);
+        // Not a multiple of the batch size, the last batch is a partial one
+        for (int i = 0; i < 101; i++) {
+            inserter.add(createStep(i));
+        }
+        assertEquals(101, inserter.finish());
+        assertEquals(101, countSteps());
+    }
+
+    public void testCancelledInsertWritesNoMoreBatches() {
+        SyncCancellation cancellation = new SyncCancellation(Long.MAX_VALUE);
+        PipelinedInserter inserter = new PipelinedInserter(mContext.getContentResolver(),
+                WeatherContract.HourlyEntry.CONTENT_URI, 8, 2, cancellation);
+        cancellation.cancel();
+        for (int i = 0; i < 40; i++) {
+            // Mustn't block even though nothing is written anymore
+            inserter.add(createStep(i));
+        }
+        assertEquals(0, inserter.finish());
+        assertEquals(0, countSteps());
+    }
+
+    public void testAbandonedInsertKeepsWrittenBatches() {
+        SyncCancellation cancellation = new SyncCancellation(Long.MAX_VALUE);
+        PipelinedInserter inserter = new PipelinedInserter(mContext.getContentResolver(),
+                WeatherContract.HourlyEntry.CONTENT_URI, 8, 2, cancellation);
+        for (int i = 0; i < 8; i++) {
+            inserter.add(createStep(i));
+        }
+        inserter.abandon();
+        // The one full batch may or may not have made it, the partial one never does
+        inserter.add(createStep(8));
+        int count = countSteps();
+        assertTrue("Error: " + count + " steps stored", count == 0 || count == 8);
+    }
+}
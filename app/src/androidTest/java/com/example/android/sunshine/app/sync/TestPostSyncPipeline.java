@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestPostSyncPipeline extends AndroidTestCase {
+
+    public void testSlowAndFailingConsumersAreIsolated() throws Exception {
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        final CountDownLatch slowInterrupted = new CountDownLatch(1);
+
+        List<PostSyncPipeline.Consumer> consumers = new ArrayList<PostSyncPipeline.Consumer>();
+        consumers.add(new PostSyncPipeline.Consumer("Slow", 200) {
+            @Override
+            void onDataUpdated() throws Exception {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    slowInterrupted.countDown();
+                    throw e;
+                }
+            }
+        });
+        consumers.add(new PostSyncPipeline.Consumer("Failing", 1000) {
+            @Override
+            void onDataUpdated() {
+                throw new IllegalStateException("art server exploded");
+            }
+        });
+        consumers.add(new PostSyncPipeline.Consumer("Fast", 1000) {
+            @Override
+            void onDataUpdated() {
+                fastDone.countDown();
+            }
+        });
+
+        long start = SystemClock.elapsedRealtime();
+        new PostSyncPipeline(PostSyncPipeline.DEFAULT_MAX_CONCURRENT_CONSUMERS)
+                .dispatch(consumers, null);
+        assertTrue("Error: dispatch waited for the consumers",
+                SystemClock.elapsedRealtime() - start < 100);
+
+        assertTrue("Error: a failing consumer kept another from running",
+                fastDone.await(1, TimeUnit.SECONDS));
+        assertTrue("Error: the slow consumer was not interrupted at its deadline",
+                slowInterrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testLaterConsumersStartAfterTheFirst() throws Exception {
+        final CountDownLatch thenDone = new CountDownLatch(1);
+        final long[] thenStarted = new long[1];
+
+        PostSyncPipeline.Consumer first = new PostSyncPipeline.Consumer("First", 200) {
+            @Override
+            void onDataUpdated() throws Exception {
+                // Runs into its deadline, the others must still be started
+                Thread.sleep(10000);
+            }
+        };
+        List<PostSyncPipeline.Consumer> then = new ArrayList<PostSyncPipeline.Consumer>();
+        then.add(new PostSyncPipeline.Consumer("Then", 1000) {
+            @Override
+            void onDataUpdated() {
+                thenStarted[0] = SystemClock.elapsedRealtime();
+                thenDone.countDown();
+            }
+        });
+
+        long start = SystemClock.elapsedRealtime();
+        new PostSyncPipeline(PostSyncPipeline.DEFAULT_MAX_CONCURRENT_CONSUMERS)
+                .dispatch(first, then, null);
+
+        assertTrue("Error: the later consumers were not started after the first timed out",
+                thenDone.await(2, TimeUnit.SECONDS));
+        assertTrue("Error: the later consumers did not wait for the first",
+                thenStarted[0] - start >= 200);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+public class TestResponseArchive extends AndroidTestCase {
+
+    private static final String LOG_TAG = TestResponseArchive.class.getSimpleName();
+
+    // Has to be escaped to be used as a directory name
+    private static final String TEST_LOCATION = "Mountain View, CA/US";
+
+    private static final long TEST_TIMESTAMP = 1419033600000L;  // December 20th, 2014
+
+    private static final int REPLAY_ROUNDS = 20;
+
+    private File mRoot;
+
+    private ResponseArchive mArchive;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRoot = new File(mContext.getCacheDir(), "test_" + ResponseArchive.DIRECTORY_NAME);
+        deleteRecursively(mRoot);
+        mArchive = new ResponseArchive(mRoot);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mRoot);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void archiveResponse(long timestamp, String json) throws Exception {
+        InputStream body = mArchive.archive(TEST_LOCATION, timestamp,
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+        byte[] buffer = new byte[100];
+        while (body.read(buffer, 0, buffer.length) != -1) {
+            // Only reading it through
+        }
+        body.close();
+    }
+
+    public void testArchivedResponseReadsBack() throws Exception {
+        archiveResponse(TEST_TIMESTAMP, TestForecastJsonReader.TEST_FORECAST_JSON);
+
+        List<ResponseArchive.Entry> entries = mArchive.list();
+        assertEquals(1, entries.size());
+        assertEquals(TEST_LOCATION, entries.get(0).mLocationSetting);
+        assertEquals(TEST_TIMESTAMP, entries.get(0).mTimestamp);
+        assertEquals("Error: the archived response changed",
+                TestForecastJsonReader.TEST_FORECAST_JSON, mArchive.read(entries.get(0)));
+    }
+
+    public void testUnclosedResponseIsNotArchived() throws Exception {
+        InputStream body = mArchive.archive(TEST_LOCATION, TEST_TIMESTAMP,
+                new ByteArrayInputStream(new byte[10]));
+        body.read();
+        assertTrue("Error: a partial response was listed", mArchive.list().isEmpty());
+    }
+
+    public void testResponseClosedBeforeItsEndIsNotArchived() throws Exception {
+        InputStream body = mArchive.archive(TEST_LOCATION, TEST_TIMESTAMP,
+                new ByteArrayInputStream(new byte[10]));
+        body.read();
+        body.close();
+        assertTrue("Error: a response cut short was archived", mArchive.list().isEmpty());
+        File[] directories = mRoot.listFiles();
+        assertEquals(1, directories.length);
+        assertEquals("Error: the partial file was left behind",
+                0, directories[0].listFiles().length);
+    }
+
+    public void testOldResponsesArePruned() throws Exception {
+        for (int i = 0; i < ResponseArchive.MAX_RESPONSES_PER_LOCATION + 3; i++) {
+            archiveResponse(TEST_TIMESTAMP + i, TestForecastJsonReader.TEST_FORECAST_JSON);
+        }
+        List<ResponseArchive.Entry> entries = mArchive.list();
+        assertEquals(ResponseArchive.MAX_RESPONSES_PER_LOCATION, entries.size());
+        assertEquals("Error: the oldest responses were not the ones dropped",
+                TEST_TIMESTAMP + 3, entries.get(0).mTimestamp);
+    }
+
+    public void testReplayStoresTheForecast() throws Exception {
+        for (int i = 0; i < REPLAY_ROUNDS; i++) {
+            archiveResponse(TEST_TIMESTAMP + i, TestForecastJsonReader.TEST_FORECAST_JSON);
+        }
+        SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+
+        long start = SystemClock.elapsedRealtime();
+        List<LocationSyncResult> results = syncAdapter.replayArchive(mArchive);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.d(LOG_TAG, "Replayed " + results.size() + " responses in " + elapsed + "ms");
+
+        assertEquals(REPLAY_ROUNDS, results.size());
+        assertEquals("Error: the first replay did not store the forecast",
+                2, results.get(0).mRowsWritten);
+        for (LocationSyncResult result : results) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.mStatus);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: the replayed forecast was not stored", 2, cursor.getCount());
+        cursor.close();
+    }
+}
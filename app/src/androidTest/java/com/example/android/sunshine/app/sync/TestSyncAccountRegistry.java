@@ -0,0 +1,50 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.R;
+
+import android.accounts.Account;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestSyncAccountRegistry extends AndroidTestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncAccountRegistry.invalidate();
+        super.tearDown();
+    }
+
+    public void testAccountIsCached() {
+        Account account = SyncAccountRegistry.getAccount(getContext());
+        assertNotNull(account);
+        assertEquals(getContext().getString(R.string.sync_account_type), account.type);
+        assertSame("Error: the account was looked up again", account,
+                SyncAccountRegistry.getAccount(getContext()));
+
+        SyncAccountRegistry.invalidate();
+        Account checkedAgain = SyncAccountRegistry.getAccount(getContext());
+        assertNotSame(account, checkedAgain);
+        assertEquals(account, checkedAgain);
+    }
+
+    public void testRunWithAccount() throws Exception {
+        final Account account = SyncAccountRegistry.getAccount(getContext());
+        final CountDownLatch called = new CountDownLatch(1);
+        final Thread testThread = Thread.currentThread();
+        SyncAccountRegistry.runWithAccount(getContext(),
+                new SyncAccountRegistry.AccountCallback() {
+                    @Override
+                    public void onAccount(Account callbackAccount, String authority) {
+                        assertEquals(account, callbackAccount);
+                        assertEquals(getContext().getString(R.string.content_authority),
+                                authority);
+                        assertSame("Error: a known account should be handed over right away",
+                                testThread, Thread.currentThread());
+                        called.countDown();
+                    }
+                });
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncCancellation extends AndroidTestCase {
+
+    public void testCancelStopsTheSync() {
+        SyncCancellation cancellation = SyncCancellation.withTimeout(60 * 1000);
+        assertFalse(cancellation.isCancelled());
+
+        cancellation.cancel();
+        assertTrue(cancellation.isCancelled());
+        assertFalse("Error: a cancelled sync was reported as past its deadline",
+                cancellation.isPastDeadline());
+    }
+
+    public void testNoneCannotBeCancelled() {
+        SyncCancellation.NONE.cancel();
+        assertFalse("Error: cancelling the shared cancellation stopped all later work",
+                SyncCancellation.NONE.isCancelled());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSyncCoordinator extends AndroidTestCase {
+
+    private static final SyncLocation TEST_LOCATION = SyncLocation.forLocationSetting("99705");
+
+    /**
+     * Counts its fetches, each of which writes one row, and can be held up until released.
+     */
+    private static class CountingSyncer implements MultiLocationSyncEngine.LocationSyncer {
+
+        final AtomicInteger mFetches = new AtomicInteger();
+
+        final CountDownLatch mStarted = new CountDownLatch(1);
+
+        final CountDownLatch mRelease;
+
+        int mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+
+        CountingSyncer(boolean blocking) {
+            mRelease = new CountDownLatch(blocking ? 1 : 0);
+        }
+
+        @Override
+        public LocationSyncResult syncLocation(SyncLocation location) {
+            mFetches.incrementAndGet();
+            mStarted.countDown();
+            try {
+                mRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new LocationSyncResult(location, mStatus, 1);
+        }
+    }
+
+    public void testConcurrentSyncsShareOneFetch() throws Exception {
+        final SyncCoordinator coordinator = new SyncCoordinator(0);
+        final CountingSyncer syncer = new CountingSyncer(true);
+        final LocationSyncResult[] results = new LocationSyncResult[2];
+
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results[0] = coordinator.sync(TEST_LOCATION, syncer);
+            }
+        });
+        first.start();
+        assertTrue(syncer.mStarted.await(1, TimeUnit.SECONDS));
+
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results[1] = coordinator.sync(TEST_LOCATION, syncer);
+            }
+        });
+        second.start();
+        // Give the second one time to join the fetch under way
+        Thread.sleep(100);
+        syncer.mRelease.countDown();
+        first.join(1000);
+        second.join(1000);
+
+        assertEquals("Error: the location was fetched twice", 1, syncer.mFetches.get());
+        assertNotNull(results[0]);
+        assertSame("Error: the waiting sync got a different result", results[0], results[1]);
+    }
+
+    public void testRecentSuccessIsReused() {
+        SyncCoordinator coordinator = new SyncCoordinator(60 * 1000);
+        CountingSyncer syncer = new CountingSyncer(false);
+
+        assertTrue(coordinator.sync(TEST_LOCATION, syncer).isDataUpdated());
+        LocationSyncResult reused = coordinator.sync(TEST_LOCATION, syncer);
+
+        assertEquals("Error: a location synced a moment ago was fetched again",
+                1, syncer.mFetches.get());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, reused.mStatus);
+        assertFalse("Error: a reused result reported new rows", reused.isDataUpdated());
+    }
+
+    public void testFailureIsNotReused() {
+        SyncCoordinator coordinator = new SyncCoordinator(60 * 1000);
+        CountingSyncer syncer = new CountingSyncer(false);
+        syncer.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+
+        coordinator.sync(TEST_LOCATION, syncer);
+        coordinator.sync(TEST_LOCATION, syncer);
+
+        assertEquals("Error: a failed location was not fetched again", 2, syncer.mFetches.get());
+    }
+}
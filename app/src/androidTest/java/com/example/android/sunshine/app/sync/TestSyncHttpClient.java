@@ -0,0 +1,116 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+
+public class TestSyncHttpClient extends AndroidTestCase {
+
+    private static final String TEST_BODY = "{\"cod\":\"200\",\"list\":[]}";
+
+    private LocalHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(String path,
+                    Map<String, String> requestHeaders) {
+                if (path.startsWith("/slow")) {
+                    return new LocalHttpServer.Response(200, TEST_BODY).delay(2000);
+                }
+                return new LocalHttpServer.Response(200, TEST_BODY).gzip()
+                        .header("ETag", "\"v1\"");
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String readBody(SyncHttpClient.Response response) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody()));
+        StringBuilder body = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            body.append(line);
+        }
+        return body.toString();
+    }
+
+    public void testGzipIsNegotiatedAndDecoded() throws Exception {
+        SyncHttpClient client = new SyncHttpClient();
+        SyncHttpClient.Response response = client.get(mServer.getUrl("/forecast"),
+                Collections.singletonMap("If-None-Match", "\"v0\""));
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("\"v1\"", response.getHeader("ETag"));
+            assertEquals(TEST_BODY, readBody(response));
+        } finally {
+            response.close();
+        }
+        assertEquals("gzip", mServer.getLastRequestHeaders().get("accept-encoding"));
+        assertEquals("\"v0\"", mServer.getLastRequestHeaders().get("if-none-match"));
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        SyncHttpClient client = new SyncHttpClient();
+        for (int i = 0; i < 3; i++) {
+            SyncHttpClient.Response response = client.get(mServer.getUrl("/forecast"), null);
+            // Don't read the body: close() has to drain it for the connection to be reused
+            response.close();
+        }
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("Error: connections were not kept alive between requests",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Exception {
+        SyncHttpClient client = new SyncHttpClient(1000, 500);
+        try {
+            client.get(mServer.getUrl("/slow"), null).close();
+            fail("Error: the read timeout was not applied");
+        } catch (SocketTimeoutException expected) {
+        }
+    }
+
+    public void testAbortAllUnblocksRequests() throws Exception {
+        final SyncHttpClient client = new SyncHttpClient(10 * 1000, 10 * 1000);
+        new Thread() {
+            @Override
+            public void run() {
+                SystemClock.sleep(300);
+                client.abortAll();
+            }
+        }.start();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            client.get(mServer.getUrl("/slow"), null).close();
+            fail("Error: the aborted request succeeded");
+        } catch (IOException expected) {
+        }
+        assertTrue("Error: the request waited for the server instead of being aborted",
+                SystemClock.elapsedRealtime() - start < 2000);
+
+        // Later requests aren't affected
+        SyncHttpClient.Response response = client.get(mServer.getUrl("/forecast"), null);
+        try {
+            assertEquals(TEST_BODY, readBody(response));
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    private static final long TEST_SYNC_START = 1419033600000L;  // December 20th, 2014
+
+    private static final String TEST_LOCATION = "99705";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testPhasesAreWrittenAndBytesAddedUp() {
+        SyncMetrics metrics = new SyncMetrics(TEST_SYNC_START);
+        metrics.record(SyncMetricsEntry.PHASE_CONNECT, TEST_LOCATION, 120, 0,
+                SyncMetricsEntry.OUTCOME_OK);
+        metrics.record(SyncMetricsEntry.PHASE_DOWNLOAD, TEST_LOCATION, 80, 4000,
+                SyncMetricsEntry.OUTCOME_OK);
+        metrics.record(SyncMetricsEntry.PHASE_HOURLY, TEST_LOCATION, 300, 6000,
+                SyncMetricsEntry.OUTCOME_OK);
+        metrics.record(SyncMetricsEntry.PHASE_LOCATION, TEST_LOCATION, 600,
+                metrics.getBytes(TEST_LOCATION), SunshineSyncAdapter.LOCATION_STATUS_OK);
+        assertEquals("Error: the bytes of the location were not added up",
+                10000, metrics.getBytes(TEST_LOCATION));
+        assertEquals("Error: the location total was counted into the sync total",
+                10000, metrics.getBytes(null));
+
+        metrics.flush(mContext.getContentResolver());
+        // Nothing left to write the second time
+        metrics.flush(mContext.getContentResolver());
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_PHASE, SyncMetricsEntry.COLUMN_BYTES},
+                SyncMetricsEntry.COLUMN_SYNC_START + " = ?",
+                new String[]{Long.toString(TEST_SYNC_START)},
+                SyncMetricsEntry._ID + " ASC");
+        assertEquals("Error: the recorded phases were not all written once", 4, cursor.getCount());
+        cursor.moveToLast();
+        assertEquals(SyncMetricsEntry.PHASE_LOCATION, cursor.getString(0));
+        assertEquals(10000, cursor.getLong(1));
+        cursor.close();
+    }
+
+    public void testOnlyTheLastSyncsAreKept() {
+        for (int i = 0; i < SyncMetrics.MAX_SYNCS_KEPT + 5; i++) {
+            SyncMetrics metrics = new SyncMetrics(TEST_SYNC_START + i);
+            metrics.record(SyncMetricsEntry.PHASE_CONNECT, TEST_LOCATION, 10, 0,
+                    SyncMetricsEntry.OUTCOME_OK);
+            metrics.record(SyncMetricsEntry.PHASE_SYNC, null, 20, 0,
+                    SyncMetricsEntry.OUTCOME_OK);
+            metrics.flush(mContext.getContentResolver());
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{"MIN(" + SyncMetricsEntry.COLUMN_SYNC_START + ")", "COUNT(*)"},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the oldest syncs were not dropped",
+                TEST_SYNC_START + 5, cursor.getLong(0));
+        assertEquals(SyncMetrics.MAX_SYNCS_KEPT * 2, cursor.getInt(1));
+        cursor.close();
+    }
+
+    public void testMeteredStreamCountsBytes() throws Exception {
+        MeteredInputStream inputStream =
+                new MeteredInputStream(new ByteArrayInputStream(new byte[1500]));
+        byte[] buffer = new byte[1024];
+        assertEquals(1024, inputStream.read(buffer, 0, buffer.length));
+        assertEquals(0, inputStream.read());
+        assertEquals(475, inputStream.read(buffer, 0, buffer.length));
+        assertEquals(-1, inputStream.read());
+        assertEquals(1500, inputStream.getBytesRead());
+    }
+}
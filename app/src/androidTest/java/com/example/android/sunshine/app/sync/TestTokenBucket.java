@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class TestTokenBucket extends AndroidTestCase {
+
+    private static final String TEST_BUCKET = "test";
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences("test_token_bucket", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testBurstThenLimited() {
+        // One token an hour, nothing comes back during the test
+        TokenBucket bucket = new TokenBucket(mPrefs, TEST_BUCKET, 1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Error: request " + i + " of the burst was refused", bucket.tryAcquire(1));
+        }
+        assertFalse("Error: a request over the burst was allowed", bucket.tryAcquire(1));
+    }
+
+    public void testRefillsOverTime() throws Exception {
+        // A token every millisecond
+        TokenBucket bucket = new TokenBucket(mPrefs, TEST_BUCKET, 60 * 60 * 1000, 10);
+        assertTrue(bucket.tryAcquire(10));
+        Thread.sleep(50);
+        assertTrue("Error: the bucket did not refill", bucket.tryAcquire(10));
+        // Enough time for 50 tokens, only the burst's worth may be there
+        Thread.sleep(50);
+        assertFalse("Error: the bucket refilled past its burst", bucket.tryAcquire(11));
+    }
+
+    public void testSeveralTokensAtOnce() {
+        TokenBucket bucket = new TokenBucket(mPrefs, TEST_BUCKET, 1, 5);
+        assertFalse("Error: more tokens than the burst were handed out", bucket.tryAcquire(6));
+        assertTrue("Error: a refused request took tokens", bucket.tryAcquire(5));
+    }
+
+    public void testStateSurvivesRestart() {
+        TokenBucket bucket = new TokenBucket(mPrefs, TEST_BUCKET, 1, 5);
+        assertTrue(bucket.tryAcquire(5));
+
+        // As if the process had been restarted
+        TokenBucket restored = new TokenBucket(mPrefs, TEST_BUCKET, 1, 5);
+        assertFalse("Error: a restart refilled the bucket", restored.tryAcquire(1));
+    }
+}
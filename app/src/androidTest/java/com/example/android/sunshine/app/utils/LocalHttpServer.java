@@ -0,0 +1,208 @@
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A tiny HTTP/1.1 server on the loopback interface, standing in for the weather servers in
+ * tests.  It only understands GET, keeps connections alive, and counts connections and requests
+ * so tests can check how the client uses the network.
+ */
+public class LocalHttpServer {
+
+    /**
+     * A canned response.
+     */
+    public static class Response {
+        final int mCode;
+        final byte[] mBody;
+        final Map<String, String> mHeaders = new HashMap<String, String>();
+        long mDelayMillis;
+        boolean mGzip;
+
+        public Response(int code, String body) {
+            mCode = code;
+            try {
+                mBody = body == null ? new byte[0] : body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        public Response header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        /**
+         * Waits this long before sending the response, to simulate a slow server.
+         */
+        public Response delay(long delayMillis) {
+            mDelayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * Compresses the body, if the request said it accepts gzip.
+         */
+        public Response gzip() {
+            mGzip = true;
+            return this;
+        }
+    }
+
+    /**
+     * Produces the response for each request.  Called on the connection's thread.
+     */
+    public interface Handler {
+        Response handle(String path, Map<String, String> requestHeaders);
+    }
+
+    private final Handler mHandler;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile Map<String, String> mLastRequestHeaders;
+    private volatile String mLastPath;
+    private ServerSocket mServerSocket;
+
+    public LocalHttpServer(Handler handler) {
+        mHandler = handler;
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread("LocalHttpServer") {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        new Thread("LocalHttpServer-connection") {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // closed by shutdown()
+                    }
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    public String getLastPath() {
+        return mLastPath;
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                if (requestLine.length() == 0) {
+                    continue;
+                }
+                String path = requestLine.split(" ")[1];
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(),
+                            line.substring(colon + 1).trim());
+                }
+                mRequestCount.incrementAndGet();
+                mLastPath = path;
+                mLastRequestHeaders = headers;
+
+                Response response = mHandler.handle(path, headers);
+                if (response.mDelayMillis > 0) {
+                    Thread.sleep(response.mDelayMillis);
+                }
+                write(out, response, headers);
+            }
+        } catch (IOException | InterruptedException e) {
+            // client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void write(OutputStream out, Response response,
+            Map<String, String> requestHeaders) throws IOException {
+        byte[] body = response.mBody;
+        String acceptEncoding = requestHeaders.get("accept-encoding");
+        boolean gzip = response.mGzip && acceptEncoding != null
+                && acceptEncoding.contains("gzip");
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+            gzipOut.write(body);
+            gzipOut.close();
+            body = compressed.toByteArray();
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mCode).append(" X\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: keep-alive\r\n");
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(body);
+        out.flush();
+    }
+}
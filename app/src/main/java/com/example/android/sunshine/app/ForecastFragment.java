@@ -315,6 +315,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         String locationSetting = Utility.getPreferredLocation(getActivity());
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
+        // Show what's stored right away, the provider syncs in the background if it's older than
+        // a sync interval
+        weatherForLocationUri = WeatherContract.WeatherEntry.withMaxAge(weatherForLocationUri,
+                SunshineSyncAdapter.SYNC_INTERVAL);
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
@@ -416,6 +420,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
                         message = R.string.empty_forecast_list_server_error;
                         break;
+                    case SunshineSyncAdapter.LOCATION_STATUS_SERVER_BACKOFF:
+                        message = R.string.empty_forecast_list_server_backoff;
+                        break;
                     case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
                         message = R.string.empty_forecast_list_invalid_location;
                         break;
@@ -431,7 +438,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
+        if (key.equals(Utility.getLocationStatusKey(getActivity(),
+                Utility.getPreferredLocation(getActivity())))) {
             updateEmptyView();
         }
     }
@@ -57,6 +57,8 @@ public class SettingsActivity extends PreferenceActivity
         // For all preferences, attach an OnPreferenceChangeListener so the UI summary can be
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
+        bindPreferenceSummaryToValue(
+                findPreference(getString(R.string.pref_saved_locations_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
 
@@ -135,6 +137,11 @@ public class SettingsActivity extends PreferenceActivity
                     // is valid
                     preference.setSummary(stringValue);
             }
+        } else if (key.equals(getString(R.string.pref_saved_locations_key))) {
+            // One per line in the preference, the summary lists them on one line
+            String summary = stringValue.trim().replaceAll("\\s*\n\\s*", ", ");
+            preference.setSummary(summary.length() > 0
+                    ? summary : getString(R.string.pref_saved_locations_none));
         } else {
             // For other preferences, set the summary to the value's simple string representation.
             preference.setSummary(stringValue);
@@ -167,11 +174,15 @@ public class SettingsActivity extends PreferenceActivity
             }
 
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.syncSoon(this);
+        } else if ( key.equals(getString(R.string.pref_saved_locations_key)) ) {
+            // Fetch the weather of the locations just added
+            SunshineSyncAdapter.syncSoon(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
+        } else if ( key.equals(Utility.getLocationStatusKey(this,
+                Utility.getPreferredLocation(this))) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
@@ -235,7 +246,7 @@ public class SettingsActivity extends PreferenceActivity
                 }
 
                 Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                SunshineSyncAdapter.syncSoon(this);
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
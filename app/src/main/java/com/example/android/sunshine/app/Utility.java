@@ -26,7 +26,9 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -577,26 +579,73 @@ public class Utility {
                 activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * Each synced location has its own status, stored under a key derived from the location
+     * setting.
+     *
+     * @param c Context used to get the key prefix
+     * @param locationSetting the location the status is about
+     * @return the SharedPreferences key of that location's status
+     */
+    static public String getLocationStatusKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_status_key) + "-" + locationSetting;
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @return the location status integer type of the preferred location
+     */
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c){
+        return getLocationStatus(c, getPreferredLocation(c));
+    }
+
     /**
      *
      * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location to get the status of
      * @return the location status integer type
      */
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
-    int getLocationStatus(Context c){
+    int getLocationStatus(Context c, String locationSetting){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return sp.getInt(getLocationStatusKey(c, locationSetting),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
     /**
-     * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
+     * Resets the status of the preferred location.
+     * (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationStatus(Context c){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        spe.putInt(getLocationStatusKey(c, getPreferredLocation(c)),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Saved locations are synced along with the preferred one.  They're kept in a single
+     * preference, one location setting per line, as the settings screen edits it.
+     *
+     * @param c Context used to get the SharedPreferences
+     * @return the saved location settings, in the order they were entered
+     */
+    public static List<String> getSavedLocations(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        String saved = sp.getString(c.getString(R.string.pref_saved_locations_key), "");
+        List<String> locations = new ArrayList<String>();
+        for (String line : saved.split("\n")) {
+            // Typed in by hand
+            String locationSetting = line.trim();
+            if (locationSetting.length() > 0 && !locations.contains(locationSetting)) {
+                locations.add(locationSetting);
+            }
+        }
+        return locations;
+    }
+}
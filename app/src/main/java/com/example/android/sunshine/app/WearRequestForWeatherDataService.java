@@ -3,6 +3,7 @@ package com.example.android.sunshine.app;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
 import com.example.android.sunshine.app.sync.SyncWithWear;
 
 import android.util.Log;
@@ -18,6 +19,8 @@ public class WearRequestForWeatherDataService extends WearableListenerService {
 
         Log.d(WearRequestForWeatherDataService.class.getSimpleName(), "onMessageReceived: ");
 
+        // The watch face is showing the weather
+        AdaptiveSyncScheduler.onWeatherViewed(getBaseContext());
         new SyncWithWear().syncWithWear(getBaseContext());
     }
 }
@@ -0,0 +1,132 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+/**
+ * An INSERT for a fixed set of columns, compiled once and run for every row of a bulk insert.
+ * SQLiteDatabase.insert() builds the SQL from each row's ContentValues and compiles it again,
+ * here each row only binds its values.  The tables replace rows on conflict, so this upserts
+ * like insert() does.
+ *
+ * Statements are not thread safe, so one is compiled per bulk insert instead of being shared.
+ */
+class CompiledInsert {
+
+    private static final String LOG_TAG = CompiledInsert.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+
+    private final String mTable;
+
+    private final SQLiteStatement mStatement;
+
+    private final String[] mColumns;
+
+    // Index of the column holding a date to normalize, -1 if none
+    private final int mDateColumn;
+
+    // Reused for every row's date, normalizing allocates one otherwise
+    private final Time mTime = new Time();
+
+    /**
+     * @param dateColumn the column whose value is normalized like
+     *                   {@link WeatherContract#normalizeDate(long)} does, or null
+     */
+    CompiledInsert(SQLiteDatabase db, String table, String[] columns, String dateColumn) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        int dateIndex = -1;
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+                parameters.append(',');
+            }
+            sql.append(columns[i]);
+            parameters.append('?');
+            if (columns[i].equals(dateColumn)) {
+                dateIndex = i;
+            }
+        }
+        sql.append(") VALUES (").append(parameters).append(')');
+        mDb = db;
+        mTable = table;
+        mStatement = db.compileStatement(sql.toString());
+        mColumns = columns;
+        mDateColumn = dateIndex;
+    }
+
+    /**
+     * Inserts a row.  Columns it has that aren't in the statement are ignored.
+     *
+     * @return the row ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(ContentValues values) {
+        for (String column : mColumns) {
+            if (!values.containsKey(column)) {
+                // A column left out gets its default, which a bound statement can't ask for
+                return insertWithDefaults(values);
+            }
+        }
+        mStatement.clearBindings();
+        for (int i = 0; i < mColumns.length; i++) {
+            Object value = values.get(mColumns[i]);
+            int index = i + 1;
+            if (value == null) {
+                mStatement.bindNull(index);
+            } else if (i == mDateColumn) {
+                mStatement.bindLong(index,
+                        WeatherContract.normalizeDate(((Number) value).longValue(), mTime));
+            } else if (value instanceof Double || value instanceof Float) {
+                mStatement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                mStatement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                mStatement.bindBlob(index, (byte[]) value);
+            } else {
+                mStatement.bindString(index, value.toString());
+            }
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // What SQLiteDatabase.insert() does too
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    private long insertWithDefaults(ContentValues values) {
+        if (mDateColumn != -1 && values.containsKey(mColumns[mDateColumn])) {
+            values = new ContentValues(values);
+            values.put(mColumns[mDateColumn], WeatherContract.normalizeDate(
+                    values.getAsLong(mColumns[mDateColumn]), mTime));
+        }
+        return mDb.insert(mTable, null, values);
+    }
+
+    /**
+     * Inserts all of the rows.  Meant to be called within a transaction.
+     *
+     * @return the number of rows inserted
+     */
+    int insertAll(ContentValues[] values) {
+        int count = 0;
+        for (ContentValues value : values) {
+            if (insert(value) != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
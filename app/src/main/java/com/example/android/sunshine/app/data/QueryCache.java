@@ -0,0 +1,234 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The results of the provider's most recent per-location queries, held in memory.  The list, the
+ * detail view, the widgets, Muzei, the notification and the wear sync all ask for the same few
+ * rows of the same location, most of the time nothing was written in between.
+ *
+ * Every location has a data version, bumped once a write to its rows committed, and writes that
+ * can't tell which locations they touched bump a version shared by all of them.  An entry is
+ * served as long as neither changed since its query ran.  Entries are copies of the rows, each
+ * hit gets a MatrixCursor of its own over them.  Only writes through the provider bump versions,
+ * anything writing to the database directly leaves stale entries behind.
+ *
+ * Copying needs Cursor.getType(), so before Honeycomb nothing is cached.
+ */
+class QueryCache {
+
+    static final int MAX_ENTRIES = 32;
+
+    // Bigger results, such as every stored day, go to the database each time
+    static final int MAX_ROWS_PER_ENTRY = 64;
+
+    private static class Entry {
+
+        final String[] mColumns;
+
+        final Object[][] mRows;
+
+        final long mAllVersion;
+
+        final long mLocationId;
+
+        final long mLocationVersion;
+
+        Entry(String[] columns, Object[][] rows, long allVersion, long locationId,
+                long locationVersion) {
+            mColumns = columns;
+            mRows = rows;
+            mAllVersion = allVersion;
+            mLocationId = locationId;
+            mLocationVersion = locationVersion;
+        }
+    }
+
+    /**
+     * The data versions a query saw, taken before it runs.  A write committing while the query
+     * runs bumps them past these, so what it read is never served once it is out of date.
+     */
+    static class Versions {
+
+        final long mAllVersion;
+
+        final long mLocationId;
+
+        final long mLocationVersion;
+
+        private Versions(long allVersion, long locationId, long locationVersion) {
+            mAllVersion = allVersion;
+            mLocationId = locationId;
+            mLocationVersion = locationVersion;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_ENTRIES);
+
+    // Guards the versions and counters below
+    private final Object mLock = new Object();
+
+    // Every version is taken from here, so they only ever go up
+    private long mClock;
+
+    private long mAllVersion;
+
+    private final Map<Long, Long> mLocationVersions = new HashMap<Long, Long>();
+
+    private long mHits;
+
+    private long mMisses;
+
+    private long mStale;
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    static String buildKey(int match, WeatherProvider.ProviderQuery query) {
+        // The SQL holds the projection and sort order
+        StringBuilder key = new StringBuilder().append(match).append('\n').append(query.mSql);
+        if (query.mSelectionArgs != null) {
+            for (String arg : query.mSelectionArgs) {
+                key.append('\n').append(arg);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return a cursor over the cached rows, or null if there are none or they are out of date
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        synchronized (mLock) {
+            if (entry == null) {
+                mMisses++;
+                return null;
+            }
+            if (entry.mAllVersion != mAllVersion
+                    || entry.mLocationVersion != getLocationVersion(entry.mLocationId)) {
+                mMisses++;
+                mStale++;
+                return null;
+            }
+            mHits++;
+        }
+        return newCursor(entry);
+    }
+
+    private static Cursor newCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.mColumns, entry.mRows.length);
+        for (Object[] row : entry.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param locationId the row ID of the location the query is for, or -1 if it isn't stored
+     */
+    Versions getVersions(long locationId) {
+        synchronized (mLock) {
+            return new Versions(mAllVersion, locationId, getLocationVersion(locationId));
+        }
+    }
+
+    // Called with mLock held
+    private long getLocationVersion(long locationId) {
+        Long version = mLocationVersions.get(locationId);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Keeps a copy of the query's rows, unless there are too many of them.
+     *
+     * @param cursor   the query's result, read and closed here
+     * @param versions what {@link #getVersions} returned before the query ran
+     * @return a cursor over the same rows, for the caller of the query
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(String key, Cursor cursor, Versions versions) {
+        if (cursor.getCount() > MAX_ROWS_PER_ENTRY) {
+            return cursor;
+        }
+        Entry entry;
+        try {
+            int columnCount = cursor.getColumnCount();
+            Object[][] rows = new Object[cursor.getCount()][];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    row[column] = getValue(cursor, column);
+                }
+                rows[i] = row;
+            }
+            entry = new Entry(cursor.getColumnNames(), rows, versions.mAllVersion,
+                    versions.mLocationId, versions.mLocationVersion);
+        } finally {
+            cursor.close();
+        }
+        mEntries.put(key, entry);
+        return newCursor(entry);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    /**
+     * Makes the entries of the locations stale.  Called once the write committed.
+     */
+    void invalidateLocations(Collection<Long> locationIds) {
+        synchronized (mLock) {
+            for (Long locationId : locationIds) {
+                mLocationVersions.put(locationId, ++mClock);
+            }
+        }
+    }
+
+    /**
+     * Makes every entry stale, for writes that could have touched any location.  Called once the
+     * write committed.
+     */
+    void invalidateAll() {
+        synchronized (mLock) {
+            mAllVersion = ++mClock;
+        }
+    }
+
+    /**
+     * @return the counters as the single row of {@link WeatherContract.QueryCacheEntry}
+     */
+    Cursor getStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.QueryCacheEntry.COLUMN_HITS,
+                WeatherContract.QueryCacheEntry.COLUMN_MISSES,
+                WeatherContract.QueryCacheEntry.COLUMN_STALE,
+                WeatherContract.QueryCacheEntry.COLUMN_SIZE}, 1);
+        synchronized (mLock) {
+            cursor.addRow(new Object[]{mHits, mMisses, mStale, mEntries.size()});
+        }
+        return cursor;
+    }
+}
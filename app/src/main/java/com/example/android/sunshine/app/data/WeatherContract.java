@@ -43,12 +43,22 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_QUERY_CACHE = "query_cache";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    /**
+     * Like {@link #normalizeDate(long)}, reusing the given Time for when many dates are
+     * normalized in a row.
+     */
+    static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -81,9 +91,33 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The id openweathermap gave the city, which lets several locations be fetched with a
+        // single request.  Stored as a long, null until the first forecast is stored.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // HTTP validators of the last forecast response for this location, as returned in the
+        // ETag and Last-Modified headers.  They are sent back on the next sync so the server can
+        // answer 304 Not Modified when the forecast hasn't changed.  Either may be null.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Time of the last successful fetch or revalidation, stored as long in milliseconds
+        // since the epoch.
+        public static final String COLUMN_LAST_FETCH = "last_fetch";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @param lastFetch     the location's COLUMN_LAST_FETCH, 0 if it was never fetched
+         * @param maxAgeSeconds how old the forecast may be
+         * @return whether a forecast fetched at {@code lastFetch} is older than
+         * {@code maxAgeSeconds} at time {@code now}
+         */
+        public static boolean isStale(long lastFetch, long maxAgeSeconds, long now) {
+            return now - lastFetch > maxAgeSeconds * 1000;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +160,12 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter of the weather URIs of a location, in seconds.  The query always
+        // answers right away with what's stored, and if the location was last fetched longer
+        // ago than this, a sync is started in the background.  The forecast's age is in the
+        // LocationEntry.COLUMN_LAST_FETCH column, which these URIs can project.
+        public static final String PARAM_MAX_AGE = "maxAge";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -164,5 +204,165 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static Uri withMaxAge(Uri weatherLocationUri, long maxAgeSeconds) {
+            return weatherLocationUri.buildUpon()
+                    .appendQueryParameter(PARAM_MAX_AGE, Long.toString(maxAgeSeconds)).build();
+        }
+
+        /**
+         * @return the maximum age the uri asks for in seconds, or -1 if it doesn't
+         */
+        public static long getMaxAgeFromUri(Uri uri) {
+            String maxAgeString = uri.getQueryParameter(PARAM_MAX_AGE);
+            if (null != maxAgeString && maxAgeString.length() > 0)
+                return Long.parseLong(maxAgeString);
+            else
+                return -1;
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        // Path segment of the per-day summary of a location's hourly forecast
+        public static final String PATH_DAILY = "daily";
+
+        public static final String TABLE_NAME = "hourly";
+
+        // The hourly forecast comes in 3 hour steps, about 40 rows per location per sync, so the
+        // rows are kept small: everything is stored as an integer, scaled where needed.
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the forecast step, stored as long in seconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        // The day the step falls on, in milliseconds and normalized like WeatherEntry.COLUMN_DATE.
+        // Filled in by the provider from COLUMN_TIME.
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature in hundredths of a degree Celsius, see TEMP_SCALE
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity in whole percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure in tenths of a hPa, see PRESSURE_SCALE
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Windspeed in hundredths, see WIND_SCALE
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Meteorological degrees (e.g, 0 is north, 180 is south), whole degrees
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static final int TEMP_SCALE = 100;
+        public static final int PRESSURE_SCALE = 10;
+        public static final int WIND_SCALE = 100;
+
+        // Columns of the daily summary besides COLUMN_DATE, unscaled floats named like their
+        // WeatherEntry counterparts.
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        public static int scale(double value, int scale) {
+            return (int) Math.round(value * scale);
+        }
+
+        public static double unscale(int value, int scale) {
+            return (double) value / scale;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationDaily(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_DAILY)
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // One row per measured phase.  Rows of the same sync share its start time, stored as
+        // long in milliseconds since the epoch.  Only the most recent syncs are kept.
+        public static final String COLUMN_SYNC_START = "sync_start";
+
+        // What was measured, one of the PHASE_ values
+        public static final String COLUMN_PHASE = "phase";
+
+        // The location the phase was for, null for phases that cover the whole sync
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // Wall time the phase took, in milliseconds
+        public static final String COLUMN_DURATION = "duration";
+
+        // Bytes the phase moved, 0 when it doesn't apply
+        public static final String COLUMN_BYTES = "bytes";
+
+        // For PHASE_LOCATION the location status the sync adapter ended up with, for the other
+        // phases one of the OUTCOME_ values
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        public static final String PHASE_SYNC = "sync";
+        public static final String PHASE_LOCATION = "location";
+        public static final String PHASE_BATCH = "batch";
+        public static final String PHASE_HOURLY = "hourly";
+        public static final String PHASE_CONNECT = "connect";
+        public static final String PHASE_DOWNLOAD = "download";
+        public static final String PHASE_PARSE = "parse";
+        // The whole transaction storing a forecast, the delete of the old days included
+        public static final String PHASE_DB_WRITE = "db_write";
+        // Post-sync consumers are recorded as this prefix followed by their name
+        public static final String PHASE_CONSUMER_PREFIX = "consumer:";
+
+        public static final int OUTCOME_OK = 0;
+        public static final int OUTCOME_FAILED = -1;
+        public static final int OUTCOME_DEADLINE = -2;
+        public static final int OUTCOME_CANCELLED = -3;
+    }
+
+    /*
+        The counters of the provider's query cache since the process started, as a single row.
+        Not a table, nothing can be written here.
+     */
+    public static final class QueryCacheEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_QUERY_CACHE).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_QUERY_CACHE;
+
+        // Queries answered from the cache
+        public static final String COLUMN_HITS = "hits";
+
+        // Queries that went to the database, including the stale ones
+        public static final String COLUMN_MISSES = "misses";
+
+        // Misses that found an entry, made stale by a write since
+        public static final String COLUMN_STALE = "stale";
+
+        // Entries currently held
+        public static final String COLUMN_SIZE = "size";
     }
 }
@@ -15,25 +15,125 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * From Honeycomb on the database is in write-ahead logging mode.  A sync writes its forecast in
+ * one transaction, and in the default rollback journal mode every loader, widget and the Muzei
+ * source waits for that transaction to end before its query can start.  With a write-ahead log
+ * they read the last committed forecast meanwhile, on a connection of their own.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The version that added WEATHER_LOCATION_DATE_INDEX and nothing else
+    private static final int VERSION_WEATHER_LOCATION_DATE_INDEX = 7;
+
+    // The version that added HourlyEntry.COLUMN_DATE and nothing else
+    private static final int VERSION_HOURLY_DATE = 8;
+
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+
+    // The provider looks weather up by location and then a date or range of dates.  The
+    // UNIQUE (date, location_id) index has the columns the other way around, which only helps
+    // once the date is known, so without this the location's rows are found by scanning.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + WEATHER_LOCATION_DATE_INDEX + " ON " + WeatherEntry.TABLE_NAME
+                    + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // The 3 hour forecast steps.  All integers, see HourlyEntry for the units.
+    private static final String SQL_CREATE_HOURLY_TABLE =
+            "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                    HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                    HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                    HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                    " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                    // One row per step per location, a newer forecast replaces the step
+                    " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                    HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Also gives the database a pool of connections for reading
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // Set after the journal mode, switching it resets the synchronous level.  These only
+        // reach the connection that writes, the pool's readers keep SQLite's defaults.  It can't
+        // be changed inside a transaction, and execSQL() runs on the connection that writes.
+        db.execSQL("PRAGMA synchronous = " + BuildConfig.DB_SYNCHRONOUS);
+        // The others answer with a row, so they have to be queries, and a query outside a
+        // transaction may go to one of the readers instead.  A transaction holds the connection
+        // that writes for the thread.
+        db.beginTransaction();
+        try {
+            // Negative means kibibytes instead of pages
+            setPragma(db, "cache_size", Integer.toString(-BuildConfig.DB_CACHE_SIZE_KB));
+            // Ignored by SQLite versions before 3.7.17, which is anything before Lollipop
+            setPragma(db, "mmap_size", Long.toString(BuildConfig.DB_MMAP_SIZE));
+            setPragma(db, "wal_autocheckpoint",
+                    Integer.toString(BuildConfig.DB_WAL_AUTOCHECKPOINT_PAGES));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Runs the pragma as a query, as some of them answer with the new value and execSQL()
+     * refuses statements that return rows.  Called inside a transaction, so it runs on the
+     * connection that writes.
+     */
+    private static void setPragma(SQLiteDatabase db, String pragma, String value) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma + " = " + value, null);
+        try {
+            // A query only runs once it is read
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -45,7 +145,11 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_LAST_FETCH + " INTEGER NOT NULL DEFAULT 0 " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -79,12 +183,41 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // Timings of the recent syncs, see SyncMetricsEntry
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME
+                + " (" +
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncMetricsEntry.COLUMN_SYNC_START + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_PHASE + " TEXT NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                SyncMetricsEntry.COLUMN_OUTCOME + " INTEGER NOT NULL DEFAULT 0 " +
+                " );";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion >= VERSION_WEATHER_LOCATION_DATE_INDEX - 1) {
+            // The versions since only added to the schema, the stored forecast can stay
+            if (oldVersion < VERSION_WEATHER_LOCATION_DATE_INDEX
+                    && newVersion >= VERSION_WEATHER_LOCATION_DATE_INDEX) {
+                sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+            }
+            if (oldVersion < VERSION_HOURLY_DATE && newVersion >= VERSION_HOURLY_DATE) {
+                // The next sync fetches the steps again, with their dates
+                sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+                sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+            }
+            return;
+        }
+
         // This database is only a cache for online data, so its upgrade policy is
         // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
@@ -93,6 +226,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
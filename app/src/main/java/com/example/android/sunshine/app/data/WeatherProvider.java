@@ -17,12 +17,27 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,10 +45,74 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /**
+     * Asked for a sync of a location whose forecast a query found stale.  How syncs run is up to
+     * the sync package, which registers one with {@link #setStaleForecastHook}.
+     */
+    public interface StaleForecastHook {
+
+        void onStaleForecast(Context context, String locationSetting);
+    }
+
+    // Until one is registered stale forecasts are just served
+    private static volatile StaleForecastHook sStaleForecastHook;
+
+    // Each location's forecast age is checked at most this often.  Loaders query again on every
+    // change, which shouldn't look the location up each time or set off a sync per change.
+    private static final long REVALIDATION_INTERVAL_MILLIS = 60 * 1000;
+
+    // When each location setting's forecast age was last checked, in elapsed realtime
+    private final Map<String, Long> mLastRevalidations = new HashMap<String, Long>();
+
+    // What the batch being applied on this thread changed, null when there is none
+    private final ThreadLocal<BatchChanges> mBatchChanges = new ThreadLocal<BatchChanges>();
+
+    private final QueryCache mQueryCache = new QueryCache();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int HOURLY = 200;
+    static final int HOURLY_WITH_LOCATION = 201;
+    static final int HOURLY_DAILY_WITH_LOCATION = 202;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
+    static final int QUERY_CACHE = 500;
+
+    // The columns bulkInsert writes, all of each table's but the row ID
+    static final String[] WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    static final String[] HOURLY_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_DATE,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES
+    };
+
+    static final String[] SYNC_METRICS_COLUMNS = {
+            WeatherContract.SyncMetricsEntry.COLUMN_SYNC_START,
+            WeatherContract.SyncMetricsEntry.COLUMN_PHASE,
+            WeatherContract.SyncMetricsEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.SyncMetricsEntry.COLUMN_DURATION,
+            WeatherContract.SyncMetricsEntry.COLUMN_BYTES,
+            WeatherContract.SyncMetricsEntry.COLUMN_OUTCOME
+    };
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +130,21 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+
+    static{
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -68,7 +162,24 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    /**
+     * The SQL query() runs for a URI, along with its arguments.  Built without touching the
+     * database, so tests can look at the plan of every query the provider runs.
+     */
+    static class ProviderQuery {
+
+        final String mSql;
+
+        final String[] mSelectionArgs;
+
+        ProviderQuery(String sql, String[] selectionArgs) {
+            mSql = sql;
+            mSelectionArgs = selectionArgs;
+        }
+    }
+
+    private static ProviderQuery buildWeatherByLocationSettingQuery(Uri uri, String[] projection,
+            String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
@@ -83,29 +194,116 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return new ProviderQuery(buildSql(sWeatherByLocationSettingQueryBuilder, projection,
+                selection, null, sortOrder), selectionArgs);
+    }
+
+    /**
+     * @return the SQL of a query through the builder, its arguments are bound when it runs
+     */
+    @SuppressWarnings("deprecation")
+    private static String buildSql(SQLiteQueryBuilder builder, String[] projection,
+            String selection, String groupBy, String sortOrder) {
+        // The overload without selection arguments only exists from Honeycomb on
+        return builder.buildQuery(projection, selection, null, groupBy, null, sortOrder, null);
+    }
+
+    public static void setStaleForecastHook(StaleForecastHook hook) {
+        sStaleForecastHook = hook;
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
+    /**
+     * Starts a background sync when the uri asks for a maximum age and the location's forecast
+     * is older than that.  Doesn't wait for it, the caller gets what's stored.
+     */
+    private void revalidateIfStale(Uri uri, LocationLookup location) {
+        long maxAge = WeatherContract.WeatherEntry.getMaxAgeFromUri(uri);
+        StaleForecastHook hook = sStaleForecastHook;
+        if (maxAge < 0 || hook == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLastRevalidations) {
+            Long lastRevalidation = mLastRevalidations.get(location.mLocationSetting);
+            if (lastRevalidation != null && now - lastRevalidation < REVALIDATION_INTERVAL_MILLIS) {
+                return;
+            }
+            mLastRevalidations.put(location.mLocationSetting, now);
+        }
+        if (WeatherContract.LocationEntry.isStale(location.getLastFetch(), maxAge,
+                System.currentTimeMillis())) {
+            hook.onStaleForecast(getContext(), location.mLocationSetting);
+        }
+    }
+
+    private static ProviderQuery buildWeatherByLocationSettingAndDateQuery(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+        return new ProviderQuery(buildSql(sWeatherByLocationSettingQueryBuilder, projection,
+                sLocationSettingAndDaySelection, null, sortOrder),
+                new String[]{locationSetting, Long.toString(date)});
+    }
+
+    private static ProviderQuery buildHourlyByLocationSettingQuery(Uri uri, String[] projection,
+            String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+
+        return new ProviderQuery(buildSql(sHourlyByLocationSettingQueryBuilder, projection,
+                sLocationSettingSelection, null,
+                sortOrder == null ? WeatherContract.HourlyEntry.COLUMN_TIME + " ASC" : sortOrder),
+                new String[]{locationSetting});
+    }
+
+    /*
+        One row per day of a location's hourly forecast, with the same columns as a weather row:
+        the lowest and highest temperature of the day, the average humidity and pressure, the
+        strongest wind, and the lowest weather id, which in OWM's numbering is the most eventful
+        condition of the day (storms come before rain, rain before clear skies).  Days are grouped
+        by the date each step was stored with, normalized like the dates in the weather table.
+     */
+    private static ProviderQuery buildHourlyDailyByLocationSettingQuery(Uri uri,
+            String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        String hourly = WeatherContract.HourlyEntry.TABLE_NAME + ".";
+        String day = hourly + WeatherContract.HourlyEntry.COLUMN_DATE;
+
+        Map<String, String> columns = new HashMap<String, String>();
+        columns.put(WeatherContract.HourlyEntry._ID, "MIN(" + hourly
+                + WeatherContract.HourlyEntry._ID + ") AS " + WeatherContract.HourlyEntry._ID);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_DATE, day + " AS "
+                + WeatherContract.HourlyEntry.COLUMN_DATE);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, "MIN(" + hourly
+                + WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ") AS "
+                + WeatherContract.HourlyEntry.COLUMN_WEATHER_ID);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_MIN_TEMP, "MIN(" + hourly
+                + WeatherContract.HourlyEntry.COLUMN_TEMP + ") / "
+                + (double) WeatherContract.HourlyEntry.TEMP_SCALE + " AS "
+                + WeatherContract.HourlyEntry.COLUMN_MIN_TEMP);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_MAX_TEMP, "MAX(" + hourly
+                + WeatherContract.HourlyEntry.COLUMN_TEMP + ") / "
+                + (double) WeatherContract.HourlyEntry.TEMP_SCALE + " AS "
+                + WeatherContract.HourlyEntry.COLUMN_MAX_TEMP);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, "AVG(" + hourly
+                + WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ") AS "
+                + WeatherContract.HourlyEntry.COLUMN_HUMIDITY);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, "AVG(" + hourly
+                + WeatherContract.HourlyEntry.COLUMN_PRESSURE + ") / "
+                + (double) WeatherContract.HourlyEntry.PRESSURE_SCALE + " AS "
+                + WeatherContract.HourlyEntry.COLUMN_PRESSURE);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, "MAX(" + hourly
+                + WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ") / "
+                + (double) WeatherContract.HourlyEntry.WIND_SCALE + " AS "
+                + WeatherContract.HourlyEntry.COLUMN_WIND_SPEED);
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(sHourlyByLocationSettingQueryBuilder.getTables());
+        builder.setProjectionMap(columns);
+
+        return new ProviderQuery(buildSql(builder, projection, sLocationSettingSelection, day,
+                sortOrder == null ? WeatherContract.HourlyEntry.COLUMN_DATE + " ASC" : sortOrder),
+                new String[]{locationSetting});
     }
 
     /*
@@ -129,7 +327,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/"
+                + WeatherContract.HourlyEntry.PATH_DAILY, HOURLY_DAILY_WITH_LOCATION);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+
+        matcher.addURI(authority, WeatherContract.PATH_QUERY_CACHE, QUERY_CACHE);
         return matcher;
     }
 
@@ -162,8 +369,17 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HOURLY_DAILY_WITH_LOCATION:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case QUERY_CACHE:
+                return WeatherContract.QueryCacheEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,53 +388,190 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Here's the switch statement that, given a URI, will determine what kind of request it is,
-        // and query the database accordingly.
+        final int match = sUriMatcher.match(uri);
+        if (match == QUERY_CACHE) {
+            return mQueryCache.getStats();
+        }
+        ProviderQuery providerQuery =
+                buildQuery(uri, projection, selection, selectionArgs, sortOrder);
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
+        switch (match) {
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                LocationLookup location = new LocationLookup(db, uri);
+                retCursor = queryCached(match, providerQuery, location);
+                revalidateIfStale(uri, location);
                 break;
             }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+            case HOURLY_DAILY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION:
+                retCursor = queryCached(match, providerQuery, new LocationLookup(db, uri));
                 break;
+            default:
+                retCursor = db.rawQuery(providerQuery.mSql, providerQuery.mSelectionArgs);
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return retCursor;
+    }
+
+    /**
+     * Answers a query for one location setting from the query cache, or runs it and keeps what
+     * it returned there.
+     */
+    private Cursor queryCached(int match, ProviderQuery providerQuery, LocationLookup location) {
+        if (!QueryCache.isSupported()) {
+            return location.mDb.rawQuery(providerQuery.mSql, providerQuery.mSelectionArgs);
+        }
+        String key = QueryCache.buildKey(match, providerQuery);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long locationId = location.getId();
+        // Before the query runs, see QueryCache.Versions
+        QueryCache.Versions versions = mQueryCache.getVersions(locationId);
+        cursor = location.mDb.rawQuery(providerQuery.mSql, providerQuery.mSelectionArgs);
+        if (locationId == -1) {
+            // Not stored yet, there is no version that would tell when it is
+            return cursor;
+        }
+        return mQueryCache.put(key, cursor, versions);
+    }
+
+    /**
+     * The row of the location setting a query is for.  Looked up the first time it is needed,
+     * and not again for the rest of the query.
+     */
+    private static class LocationLookup {
+
+        final SQLiteDatabase mDb;
+
+        final String mLocationSetting;
+
+        private boolean mLookedUp;
+
+        private long mId = -1;
+
+        private long mLastFetch;
+
+        LocationLookup(SQLiteDatabase db, Uri uri) {
+            mDb = db;
+            // The location setting is the first path segment of every URI for one location
+            mLocationSetting = uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the location's row ID, or -1 if it isn't stored
+         */
+        long getId() {
+            lookUp();
+            return mId;
+        }
+
+        /**
+         * @return when the location's forecast was last fetched, 0 if it never was
+         */
+        long getLastFetch() {
+            lookUp();
+            return mLastFetch;
+        }
+
+        private void lookUp() {
+            if (mLookedUp) {
+                return;
             }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
+            mLookedUp = true;
+            Cursor cursor = mDb.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID,
+                            WeatherContract.LocationEntry.COLUMN_LAST_FETCH},
+                    sLocationSettingSelection,
+                    new String[]{mLocationSetting},
+                    null,
+                    null,
+                    null);
+            try {
+                if (cursor.moveToFirst()) {
+                    mId = cursor.getLong(0);
+                    mLastFetch = cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @param locationIdColumn the column of the table holding the location's row ID
+     * @return the locations of the rows the selection matches, the ones a delete or update with
+     * it changes
+     */
+    private static Set<Long> getLocationIds(SQLiteDatabase db, String table,
+            String locationIdColumn, String selection, String[] selectionArgs) {
+        Set<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = db.query(true, table,
+                new String[]{locationIdColumn},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
             }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
 
+    /**
+     * @return the query {@link #query} runs for the arguments
+     */
+    static ProviderQuery buildQuery(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        // Here's the switch statement that, given a URI, will determine what kind of request it is,
+        // and query the database accordingly.
+        switch (sUriMatcher.match(uri)) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return buildWeatherByLocationSettingAndDateQuery(uri, projection, sortOrder);
+            // "weather/*"
+            case WEATHER_WITH_LOCATION:
+                return buildWeatherByLocationSettingQuery(uri, projection, sortOrder);
+            // "weather"
+            case WEATHER:
+                return buildTableQuery(WeatherContract.WeatherEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder);
+            // "hourly/*/daily"
+            case HOURLY_DAILY_WITH_LOCATION:
+                return buildHourlyDailyByLocationSettingQuery(uri, projection, sortOrder);
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION:
+                return buildHourlyByLocationSettingQuery(uri, projection, sortOrder);
+            // "hourly"
+            case HOURLY:
+                return buildTableQuery(WeatherContract.HourlyEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder);
+            // "location"
+            case LOCATION:
+                return buildTableQuery(WeatherContract.LocationEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder);
+            // "sync_metrics"
+            case SYNC_METRICS:
+                return buildTableQuery(WeatherContract.SyncMetricsEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return retCursor;
+    }
+
+    private static ProviderQuery buildTableQuery(String table, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder) {
+        return new ProviderQuery(SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                selection, null, null, sortOrder, null), selectionArgs);
     }
 
     /*
@@ -240,6 +593,16 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                putHourlyDate(values);
+                normalizeDate(values);
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
@@ -248,10 +611,18 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_METRICS: {
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        onChange(uri, getChangedLocationIds(match, values));
         return returnUri;
     }
 
@@ -262,21 +633,37 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
+        // The locations whose cached queries the delete makes stale, null for all of them
+        Set<Long> locationIds;
         switch (match) {
             case WEATHER:
+                locationIds = getLocationIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection, selectionArgs);
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                locationIds = getLocationIds(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY, selection, selectionArgs);
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             case LOCATION:
+                locationIds = null;
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SYNC_METRICS:
+                locationIds = Collections.emptySet();
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            onChange(uri, locationIds);
         }
         return rowsDeleted;
     }
@@ -289,20 +676,49 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Gives an hourly step the day it falls on, from its start.  Normalized like any date, with
+     * the time zone offset at the step itself, so steps past a daylight saving change still land
+     * on their own day.
+     */
+    private static void putHourlyDate(ContentValues values) {
+        Long time = values.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME);
+        if (time != null) {
+            values.put(WeatherContract.HourlyEntry.COLUMN_DATE, time * 1000);
+        }
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        // The locations whose cached queries the update makes stale, null for all of them
+        Set<Long> locationIds;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
+                locationIds = getLocationIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case HOURLY:
+                putHourlyDate(values);
+                normalizeDate(values);
+                locationIds = getLocationIds(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY, selection, selectionArgs);
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
             case LOCATION:
+                // Every sync and revalidation writes its validators here, only the locations it
+                // wrote to go stale.  Queries for a setting no row has are never cached, so a
+                // renamed setting needs nothing more.
+                locationIds = getLocationIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                        WeatherContract.LocationEntry._ID, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
@@ -310,36 +726,142 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            onChange(uri, locationIds);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Applies all of the operations in one transaction, so readers see either none or all of
+     * them.  Observers are told once per URI after it committed, instead of after every
+     * operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchChanges changes = new BatchChanges();
+        ContentProviderResult[] results;
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        invalidateQueryCache(changes.mAllLocations ? null : changes.mLocationIds);
+        for (Uri uri : changes.mUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * What the operations of a batch changed, held back until the batch committed.
+     */
+    private static class BatchChanges {
+
+        final Set<Uri> mUris = new LinkedHashSet<Uri>();
+
+        final Set<Long> mLocationIds = new HashSet<Long>();
+
+        boolean mAllLocations;
+    }
+
+    /**
+     * Makes the cached queries of the locations stale and tells the observers of the URI that it
+     * changed.  If a batch is being applied on this thread, that waits until it committed.
+     *
+     * @param locationIds the locations whose rows changed, null if that could be any of them
+     */
+    private void onChange(Uri uri, Collection<Long> locationIds) {
+        BatchChanges changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.mUris.add(uri);
+            if (locationIds == null) {
+                changes.mAllLocations = true;
+            } else {
+                changes.mLocationIds.addAll(locationIds);
+            }
+            return;
+        }
+        invalidateQueryCache(locationIds);
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    private void invalidateQueryCache(Collection<Long> locationIds) {
+        if (locationIds == null) {
+            mQueryCache.invalidateAll();
+        } else {
+            mQueryCache.invalidateLocations(locationIds);
+        }
+    }
+
+    /**
+     * @return the locations the inserted rows belong to, null if the rows are locations
+     * themselves, which any cached query for a location setting not stored before may be about
+     */
+    private static Set<Long> getChangedLocationIds(int match, ContentValues... values) {
+        switch (match) {
+            case WEATHER:
+            case HOURLY: {
+                Set<Long> locationIds = new HashSet<Long>();
+                for (ContentValues row : values) {
+                    Long locationId = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    if (locationId != null) {
+                        locationIds.add(locationId);
+                    }
+                }
+                return locationIds;
+            }
+            case LOCATION:
+                return null;
+            default:
+                return Collections.emptySet();
+        }
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        CompiledInsert insert;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                insert = new CompiledInsert(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        WEATHER_COLUMNS, WeatherContract.WeatherEntry.COLUMN_DATE);
+                break;
+            case HOURLY:
+                for (ContentValues row : values) {
+                    putHourlyDate(row);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                // Around 40 rows per location, one transaction keeps that to a single journal
+                // write
+                insert = new CompiledInsert(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                        HOURLY_COLUMNS, WeatherContract.HourlyEntry.COLUMN_DATE);
+                break;
+            case SYNC_METRICS:
+                insert = new CompiledInsert(db, WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        SYNC_METRICS_COLUMNS, null);
+                break;
             default:
                 return super.bulkInsert(uri, values);
         }
+        // The statement is compiled once for all of the rows, instead of once per row like
+        // db.insert() would
+        int returnCount;
+        db.beginTransaction();
+        try {
+            returnCount = insert.insertAll(values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        onChange(uri, getChangedLocationIds(match, values));
+        return returnCount;
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
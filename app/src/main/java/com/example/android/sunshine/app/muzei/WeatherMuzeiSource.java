@@ -22,6 +22,7 @@ import android.net.Uri;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
@@ -54,6 +55,11 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
 
     @Override
     protected void onUpdate(int reason) {
+        if (reason != UPDATE_REASON_OTHER) {
+            // The user picked this source or asked for the next artwork, updates after a sync
+            // come as UPDATE_REASON_OTHER
+            AdaptiveSyncScheduler.onWeatherViewed(this);
+        }
         String location = Utility.getPreferredLocation(this);
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 location, System.currentTimeMillis());
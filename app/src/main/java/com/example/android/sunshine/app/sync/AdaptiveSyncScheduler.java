@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.format.Time;
+import android.util.Log;
+
+/**
+ * Picks the periodic sync interval from how the weather and its viewers behave, instead of
+ * always syncing every {@link SunshineSyncAdapter#SYNC_INTERVAL}.  The interval doubles every
+ * time a sync finds nothing changed, and halves when the forecast did change.  Nobody looking
+ * for a day, or the night, stretches it to at least {@link #IDLE_INTERVAL}; someone looking at
+ * the weather right now brings it down to {@link #MIN_INTERVAL}.
+ */
+public class AdaptiveSyncScheduler {
+
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    // Intervals in seconds, like SYNC_INTERVAL
+    static final int MIN_INTERVAL = 60 * 60;
+
+    static final int IDLE_INTERVAL = 6 * 60 * 60;
+
+    static final int MAX_INTERVAL = 12 * 60 * 60;
+
+    // The weather seen this recently counts as the app being in use
+    static final long ACTIVE_USE_MILLIS = 60 * 60 * 1000;
+
+    // Nobody has looked in this long
+    static final long IDLE_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Local hours, from the first included to the last excluded
+    static final int NIGHT_START_HOUR = 0;
+
+    static final int NIGHT_END_HOUR = 6;
+
+    private static final String KEY_INTERVAL = "adaptive-sync-interval";
+
+    private static final String KEY_LAST_VIEWED = "adaptive-sync-last-viewed";
+
+    private AdaptiveSyncScheduler() {
+    }
+
+    /**
+     * Works out the interval to sync at after a sync.
+     *
+     * @param currentInterval  the interval synced at so far, in seconds
+     * @param dataChanged      whether the sync stored anything new
+     * @param millisSinceViewed how long since the app, the widgets or the watch face asked for the
+     *                          weather, Long.MAX_VALUE if never
+     * @param hourOfDay        the local hour, 0 to 23
+     * @return the interval to sync at from now on, in seconds
+     */
+    static int getNextInterval(int currentInterval, boolean dataChanged, long millisSinceViewed,
+            int hourOfDay) {
+        int interval = dataChanged ? currentInterval / 2 : currentInterval * 2;
+        if (millisSinceViewed < ACTIVE_USE_MILLIS) {
+            interval = MIN_INTERVAL;
+        } else if (millisSinceViewed >= IDLE_MILLIS
+                || (hourOfDay >= NIGHT_START_HOUR && hourOfDay < NIGHT_END_HOUR)) {
+            interval = Math.max(interval, IDLE_INTERVAL);
+        }
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * Adjusts the periodic sync after a sync finished.
+     */
+    static void onSyncFinished(Context context, boolean dataChanged) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        int currentInterval = prefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+        long lastViewed = prefs.getLong(KEY_LAST_VIEWED, 0);
+        long millisSinceViewed = lastViewed == 0
+                ? Long.MAX_VALUE : System.currentTimeMillis() - lastViewed;
+        Time now = new Time();
+        now.setToNow();
+
+        reschedule(context, prefs, currentInterval,
+                getNextInterval(currentInterval, dataChanged, millisSinceViewed, now.hour));
+    }
+
+    /**
+     * @return the interval the periodic sync currently runs at, in seconds
+     */
+    static int getInterval(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * Records that somebody is looking at the weather.  If the sync had slowed down because
+     * nobody was, it goes back to the usual interval right away.
+     *
+     * Only call it for something a person did, like opening the app, placing or resizing a
+     * widget or the watch face asking.  Refreshes after a sync don't count: every sync would
+     * then look like a view and the interval would never grow.
+     */
+    public static void onWeatherViewed(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putLong(KEY_LAST_VIEWED, System.currentTimeMillis()).apply();
+
+        int currentInterval = prefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+        if (currentInterval > SunshineSyncAdapter.SYNC_INTERVAL) {
+            reschedule(context, prefs, currentInterval, SunshineSyncAdapter.SYNC_INTERVAL);
+        }
+    }
+
+    private static void reschedule(Context context, SharedPreferences prefs, int currentInterval,
+            int interval) {
+        if (interval == currentInterval) {
+            return;
+        }
+        Log.d(LOG_TAG, "Syncing every " + interval / 60 + " minutes instead of "
+                + currentInterval / 60);
+        prefs.edit().putInt(KEY_INTERVAL, interval).apply();
+        SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.sync;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Warms Glide's caches with the art of every weather condition in the stored forecast, so the
+ * list, the detail view, the widgets, the notification and the wearable find it on disk instead
+ * of each going to the network for it.
+ *
+ * Each image is downloaded once into the source cache, which every load with
+ * {@link DiskCacheStrategy#ALL} can decode from at any size.  The sizes loaded off the UI
+ * thread by the sync itself are also decoded ahead of time into the result cache.
+ */
+class ArtPrefetcher {
+
+    private static final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    private static final String[] WEATHER_ID_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+
+    private final Context mContext;
+
+    // Width and height pairs of the sizes to decode ahead of time
+    private final int[][] mSizeBuckets;
+
+    ArtPrefetcher(Context context, int[][] sizeBuckets) {
+        mContext = context;
+        mSizeBuckets = sizeBuckets;
+    }
+
+    /**
+     * Fetches the art of the weather conditions stored from today on, giving each image up to
+     * {@code timeoutMillis}.  Art that can't be fetched is skipped, whoever needs it falls back
+     * to the bundled art as before.
+     *
+     * @return the number of distinct images now cached
+     */
+    int prefetch(long timeoutMillis) throws InterruptedException {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return 0;
+        }
+
+        int cached = 0;
+        for (String artUrl : getArtUrls()) {
+            try {
+                Glide.with(mContext)
+                        .load(artUrl)
+                        .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL)
+                        .get(timeoutMillis, TimeUnit.MILLISECONDS);
+                for (int[] size : mSizeBuckets) {
+                    Glide.with(mContext)
+                            .load(artUrl)
+                            .asBitmap()
+                            .fitCenter()
+                            .diskCacheStrategy(DiskCacheStrategy.ALL)
+                            .into(size[0], size[1])
+                            .get(timeoutMillis, TimeUnit.MILLISECONDS);
+                }
+                cached++;
+            } catch (ExecutionException | TimeoutException e) {
+                Log.d(LOG_TAG, "Error prefetching " + artUrl, e);
+            }
+        }
+        Log.d(LOG_TAG, "Prefetched " + cached + " images");
+        return cached;
+    }
+
+    /**
+     * @return the distinct art urls of the weather stored from today on.  Several conditions
+     * share the same art.
+     */
+    private Set<String> getArtUrls() {
+        Set<String> artUrls = new LinkedHashSet<String>();
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianToday = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        long today = new Time().setJulianDay(julianToday);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WEATHER_ID_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(today)},
+                null);
+        if (cursor == null) {
+            return artUrls;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String artUrl = Utility.getArtUrlForWeatherCondition(mContext,
+                        cursor.getInt(INDEX_WEATHER_ID));
+                if (artUrl != null) {
+                    artUrls.add(artUrl);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return artUrls;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stops the sync from calling a weather server endpoint that keeps failing.  After
+ * {@link #FAILURE_THRESHOLD} failures in a row the breaker opens, and requests to the endpoint
+ * are refused for a jittered, exponentially growing time.  Once that is up a single trial request
+ * is let through: success closes the breaker, failure opens it again for longer.
+ *
+ * The state is kept in the shared preferences, so a restarted process doesn't start hammering
+ * a server that was down a minute ago.
+ */
+class CircuitBreaker {
+
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final String ENDPOINT_DAILY = "daily";
+    static final String ENDPOINT_HOURLY = "hourly";
+    static final String ENDPOINT_GROUP = "group";
+
+    static final int FAILURE_THRESHOLD = 3;
+
+    // The first time the breaker opens it stays open about this long, doubling every time after
+    static final long BASE_OPEN_MILLIS = 60 * 1000;
+
+    static final long MAX_OPEN_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final String KEY_PREFIX = "circuit-breaker-";
+    private static final String KEY_FAILURES = "-failures";
+    private static final String KEY_OPENINGS = "-openings";
+    private static final String KEY_OPEN_UNTIL = "-open-until";
+
+    private static final Map<String, CircuitBreaker> sBreakers =
+            new HashMap<String, CircuitBreaker>();
+
+    private static final Random sRandom = new Random();
+
+    private final SharedPreferences mPrefs;
+
+    private final String mKey;
+
+    private final long mBaseOpenMillis;
+
+    // Failures in a row since the last success
+    private int mFailures;
+
+    // Times the breaker opened in a row, which sets how long it stays open
+    private int mOpenings;
+
+    // When the open breaker lets a trial request through, in milliseconds since the epoch
+    private long mOpenUntil;
+
+    private boolean mTrialInFlight;
+
+    CircuitBreaker(SharedPreferences prefs, String endpoint, long baseOpenMillis) {
+        mPrefs = prefs;
+        mKey = KEY_PREFIX + endpoint;
+        mBaseOpenMillis = baseOpenMillis;
+        mFailures = prefs.getInt(mKey + KEY_FAILURES, 0);
+        mOpenings = prefs.getInt(mKey + KEY_OPENINGS, 0);
+        mOpenUntil = prefs.getLong(mKey + KEY_OPEN_UNTIL, 0);
+    }
+
+    /**
+     * @return the breaker of the given endpoint, shared by everything in the process
+     */
+    static CircuitBreaker forEndpoint(Context context, String endpoint) {
+        synchronized (sBreakers) {
+            CircuitBreaker breaker = sBreakers.get(endpoint);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(
+                        PreferenceManager.getDefaultSharedPreferences(context), endpoint,
+                        BASE_OPEN_MILLIS);
+                sBreakers.put(endpoint, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * @return a random delay between half and all of {@code baseMillis * 2^attempt}, capped at
+     * {@code maxMillis}.  The jitter keeps clients that failed together from retrying together.
+     */
+    static long getBackoffMillis(int attempt, long baseMillis, long maxMillis) {
+        long backoff = maxMillis;
+        if (attempt < 31 && baseMillis << attempt > 0) {
+            backoff = Math.min(baseMillis << attempt, maxMillis);
+        }
+        synchronized (sRandom) {
+            return backoff / 2 + (long) (sRandom.nextDouble() * (backoff / 2));
+        }
+    }
+
+    /**
+     * @return whether a request to the endpoint may be made now.  When this returns true the
+     * caller has to report how the request went to {@link #onSuccess} or {@link #onFailure}, or
+     * {@link #onSkipped} if it didn't make it.
+     */
+    synchronized boolean allowRequest() {
+        if (mFailures < FAILURE_THRESHOLD) {
+            return true;
+        }
+        if (System.currentTimeMillis() < mOpenUntil || mTrialInFlight) {
+            return false;
+        }
+        // Half open, one request gets to find out whether the server is back
+        mTrialInFlight = true;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        mTrialInFlight = false;
+        if (mFailures == 0 && mOpenings == 0) {
+            return;
+        }
+        if (mOpenings > 0) {
+            Log.d(LOG_TAG, mKey + " closed");
+        }
+        mFailures = 0;
+        mOpenings = 0;
+        mOpenUntil = 0;
+        save();
+    }
+
+    /**
+     * Reports that a request {@link #allowRequest} let through wasn't made after all.
+     */
+    synchronized void onSkipped() {
+        mTrialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        mTrialInFlight = false;
+        mFailures++;
+        if (mFailures >= FAILURE_THRESHOLD) {
+            long openMillis = getBackoffMillis(mOpenings, mBaseOpenMillis, MAX_OPEN_MILLIS);
+            mOpenings++;
+            mOpenUntil = System.currentTimeMillis() + openMillis;
+            Log.d(LOG_TAG, mKey + " open for " + openMillis + "ms after " + mFailures
+                    + " failures");
+        }
+        save();
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putInt(mKey + KEY_FAILURES, mFailures)
+                .putInt(mKey + KEY_OPENINGS, mOpenings)
+                .putLong(mKey + KEY_OPEN_UNTIL, mOpenUntil)
+                .apply();
+    }
+}
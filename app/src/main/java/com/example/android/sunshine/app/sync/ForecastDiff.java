@@ -0,0 +1,188 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The change set between freshly fetched weather rows and the rows already stored for the same
+ * location and day.  Rewriting a row that didn't change costs a delete and an insert (the weather
+ * table replaces on conflict) and a notifyChange that re-runs every loader, so only the rows
+ * that come out of here as changed are written.
+ */
+class ForecastDiff {
+
+    private static final String[] DIFF_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+
+    private static final int INDEX_DATE = 1;
+
+    private static final int INDEX_WEATHER_ID = 2;
+
+    private static final int INDEX_SHORT_DESC = 3;
+
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private static final int INDEX_MAX_TEMP = 5;
+
+    private static final int INDEX_HUMIDITY = 6;
+
+    private static final int INDEX_PRESSURE = 7;
+
+    private static final int INDEX_WIND_SPEED = 8;
+
+    private static final int INDEX_DEGREES = 9;
+
+    // Rows that are new or differ from what's stored, ready to be inserted
+    final List<ContentValues> mChanged;
+
+    // Number of rows identical to what's stored
+    final int mUnchanged;
+
+    private ForecastDiff(List<ContentValues> changed, int unchanged) {
+        mChanged = changed;
+        mUnchanged = unchanged;
+    }
+
+    /**
+     * Compares incoming weather rows with the stored ones.
+     *
+     * @param incoming weather rows, location key and date included.  They may be for more than
+     *                 one location.  Columns a row leaves out count as unchanged.
+     */
+    static ForecastDiff compute(ContentResolver resolver, List<ContentValues> incoming) {
+        if (incoming.isEmpty()) {
+            return new ForecastDiff(incoming, 0);
+        }
+
+        Set<String> locationIds = new HashSet<String>();
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues row : incoming) {
+            locationIds.add(row.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+            firstDate = Math.min(firstDate, getDate(row));
+        }
+
+        List<String> selectionArgs = new ArrayList<String>(locationIds);
+        selectionArgs.add(Long.toString(firstDate));
+        String[] placeholders = new String[locationIds.size()];
+        for (int i = 0; i < placeholders.length; i++) {
+            placeholders[i] = "?";
+        }
+
+        Map<String, ContentValues> stored = new HashMap<String, ContentValues>();
+        Cursor cursor = resolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                DIFF_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+                        + " IN (" + TextUtils.join(",", placeholders) + ") AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    stored.put(key(cursor.getLong(INDEX_LOC_KEY), cursor.getLong(INDEX_DATE)),
+                            readRow(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<ContentValues> changed = new ArrayList<ContentValues>();
+        for (ContentValues row : incoming) {
+            ContentValues storedRow = stored.get(
+                    key(row.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY), getDate(row)));
+            if (storedRow == null || !sameWeather(row, storedRow)) {
+                changed.add(row);
+            }
+        }
+        return new ForecastDiff(changed, incoming.size() - changed.size());
+    }
+
+    boolean isEmpty() {
+        return mChanged.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return mChanged.size() + " changed, " + mUnchanged + " unchanged";
+    }
+
+    // The provider normalizes dates on insert, so compare the normalized form
+    private static long getDate(ContentValues row) {
+        return WeatherContract.normalizeDate(
+                row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+    }
+
+    private static String key(long locationId, long date) {
+        return locationId + "/" + date;
+    }
+
+    private static ContentValues readRow(Cursor cursor) {
+        ContentValues row = new ContentValues();
+        row.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(INDEX_WEATHER_ID));
+        row.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(INDEX_SHORT_DESC));
+        row.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(INDEX_MIN_TEMP));
+        row.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(INDEX_MAX_TEMP));
+        row.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, cursor.getDouble(INDEX_HUMIDITY));
+        row.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, cursor.getDouble(INDEX_PRESSURE));
+        row.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                cursor.getDouble(INDEX_WIND_SPEED));
+        row.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, cursor.getDouble(INDEX_DEGREES));
+        return row;
+    }
+
+    private static boolean sameWeather(ContentValues incoming, ContentValues stored) {
+        return sameInt(incoming, stored, WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)
+                && TextUtils.equals(
+                        incoming.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                        stored.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC))
+                && sameDouble(incoming, stored, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)
+                && sameDouble(incoming, stored, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)
+                && sameDouble(incoming, stored, WeatherContract.WeatherEntry.COLUMN_HUMIDITY)
+                && sameDouble(incoming, stored, WeatherContract.WeatherEntry.COLUMN_PRESSURE)
+                && sameDouble(incoming, stored, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED)
+                && sameDouble(incoming, stored, WeatherContract.WeatherEntry.COLUMN_DEGREES);
+    }
+
+    // Columns an incoming row leaves out aren't written, so they can't change
+    private static boolean sameInt(ContentValues a, ContentValues b, String column) {
+        if (!a.containsKey(column)) {
+            return true;
+        }
+        Integer valueA = a.getAsInteger(column);
+        return valueA != null && valueA.equals(b.getAsInteger(column));
+    }
+
+    // SQLite REAL columns round-trip doubles exactly, so no tolerance is needed
+    private static boolean sameDouble(ContentValues a, ContentValues b, String column) {
+        if (!a.containsKey(column)) {
+            return true;
+        }
+        Double valueA = a.getAsDouble(column);
+        return valueA != null && valueA.equals(b.getAsDouble(column));
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull-based reader for the OpenWeatherMap daily forecast response.  Instead of buffering the
+ * whole response into a String and building an org.json tree from it, the stream is walked
+ * token by token and each day is handed to the {@link Callback} as soon as it has been read.
+ * Fields we never store are skipped without being materialized.
+ *
+ * JsonReader is only available from Honeycomb on, older devices keep using the org.json path in
+ * {@link SunshineSyncAdapter}.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class ForecastJsonReader {
+
+    // These are the names of the JSON objects that need to be extracted.
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to make sure a day carried every field we need, like JSONObject.getXXX() would.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_ALL = (1 << 8) - 1;
+
+    /**
+     * Receives the parsed forecast while the stream is being read.
+     */
+    interface Callback {
+
+        /**
+         * Called once the "city" object has been read.
+         *
+         * @param cityId the OWM id of the city, or -1 if the response didn't have it
+         */
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        /**
+         * Called for every element of the "list" array, in order.
+         *
+         * @param dayIndex      index of the day within the response, 0 being today
+         * @param weatherValues the weather columns for that day, without location key and date
+         */
+        void onDay(int dayIndex, ContentValues weatherValues);
+    }
+
+    private final Callback mCallback;
+
+    ForecastJsonReader(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Reads the forecast from the given stream.  The stream is left open, so whoever owns it can
+     * drain and close it (which lets a keep-alive connection be reused).
+     *
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response did not carry one.  Reading stops as soon as an error code is seen.
+     * @throws JSONException if the response isn't the JSON we expect
+     * @throws IOException   if reading from the stream failed
+     */
+    int read(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // JsonReader reports type mismatches and syntax errors this way, surface them
+            // the same way the org.json parser does.
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private int readForecast(JsonReader reader) throws IOException, JSONException {
+        int code = HttpURLConnection.HTTP_OK;
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends this either as a number or as a string, nextString() copes with both
+                code = Integer.parseInt(reader.nextString());
+                if (code != HttpURLConnection.HTTP_OK) {
+                    return code;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readList(reader);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return code;
+    }
+
+    private void readCity(JsonReader reader) throws IOException, JSONException {
+        long cityId = -1;
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean hasCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                boolean hasLat = false;
+                boolean hasLon = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                        hasLat = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                        hasLon = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = hasLat && hasLon;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !hasCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+        mCallback.onCity(cityId, cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader) throws IOException, JSONException {
+        int dayIndex = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            mCallback.onDay(dayIndex, readDay(reader, dayIndex));
+            dayIndex++;
+        }
+        reader.endArray();
+    }
+
+    private ContentValues readDay(JsonReader reader, int dayIndex)
+            throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        int fields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                        reader.nextDouble());
+                fields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // JSONObject.getInt() truncates, do the same
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        (int) reader.nextDouble());
+                fields |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                        reader.nextDouble());
+                fields |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                        reader.nextDouble());
+                fields |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                reader.nextDouble());
+                        fields |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                reader.nextDouble());
+                        fields |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // Only the first element is read, anything after it is skipped.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                                    reader.nextString());
+                            fields |= FIELD_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                                    (int) reader.nextDouble());
+                            fields |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fields != FIELDS_ALL) {
+            throw new JSONException("Incomplete forecast for day " + dayIndex);
+        }
+        return weatherValues;
+    }
+}
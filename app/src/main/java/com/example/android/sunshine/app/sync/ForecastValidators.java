@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.format.Time;
+
+import java.util.Map;
+
+/**
+ * The HTTP validators (ETag and Last-Modified) of the last forecast we stored for a location.
+ * They are kept next to the location row and turned into If-None-Match / If-Modified-Since on the
+ * next request, so an unchanged forecast costs a 304 instead of a full download and parse.
+ */
+class ForecastValidators {
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String[] VALIDATOR_PROJECTION = new String[]{
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+            WeatherContract.LocationEntry.COLUMN_LAST_FETCH
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+
+    private static final int INDEX_LAST_MODIFIED = 1;
+
+    private static final int INDEX_LAST_FETCH = 2;
+
+    static final ForecastValidators NONE = new ForecastValidators(null, null);
+
+    final String mETag;
+
+    final String mLastModified;
+
+    ForecastValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * @return the validators stored for the given location setting, or {@link #NONE} if we
+     * haven't stored a forecast for it yet or it was fetched on an earlier day.  The stored rows
+     * are dated relative to the day they were fetched, so a 304 is only good on that same day.
+     */
+    static ForecastValidators load(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                VALIDATOR_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return NONE;
+        }
+        try {
+            if (cursor.moveToFirst() && isToday(cursor.getLong(INDEX_LAST_FETCH))) {
+                return new ForecastValidators(cursor.getString(INDEX_ETAG),
+                        cursor.getString(INDEX_LAST_MODIFIED));
+            }
+            return NONE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return whether the given time falls on today, in local time.
+     */
+    static boolean isToday(long timeInMillis) {
+        Time time = new Time();
+        time.setToNow();
+        return Time.getJulianDay(timeInMillis, time.gmtoff)
+                == Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+    }
+
+    /**
+     * Reads the validators the server sent along with a response.
+     */
+    static ForecastValidators fromResponse(SyncHttpClient.Response response) {
+        return new ForecastValidators(response.getHeader(HEADER_ETAG),
+                response.getHeader(HEADER_LAST_MODIFIED));
+    }
+
+    boolean isEmpty() {
+        return mETag == null && mLastModified == null;
+    }
+
+    /**
+     * Adds the headers that make a request conditional.
+     */
+    void addRequestHeaders(Map<String, String> requestHeaders) {
+        if (mETag != null) {
+            requestHeaders.put(HEADER_IF_NONE_MATCH, mETag);
+        }
+        if (mLastModified != null) {
+            requestHeaders.put(HEADER_IF_MODIFIED_SINCE, mLastModified);
+        }
+    }
+
+    /**
+     * Puts the validators and the fetch time into location values.
+     */
+    void putInto(ContentValues locationValues, long fetchTime) {
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, mETag);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, mLastModified);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_FETCH, fetchTime);
+    }
+
+    /**
+     * Records that the forecast of a location was revalidated without being downloaded again.
+     */
+    static void markRevalidated(ContentResolver resolver, String locationSetting,
+            long fetchTime) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_FETCH, fetchTime);
+        resolver.update(WeatherContract.LocationEntry.CONTENT_URI, locationValues,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches the current weather of many cities at once through OWM's "group" endpoint, which takes
+ * a comma separated list of city ids and answers with one combined response.
+ *
+ * The group endpoint only knows current conditions, not the daily forecast, so what comes back
+ * is one set of current-condition columns per city, to lay over today's entry.  Its temp_min and
+ * temp_max are the spread of the current observation, not the day's low and high, so they are
+ * left out: those only ever come from the daily forecast.  The response is read with JsonReader,
+ * which is why this needs Honeycomb.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class GroupWeatherFetcher {
+
+    static final String GROUP_BASE_URL = "http://api.openweathermap.org/data/2.5/group";
+
+    // The most ids OWM accepts in one group request
+    static final int MAX_CITIES_PER_REQUEST = 20;
+
+    private static final String ID_PARAM = "id";
+    private static final String UNITS_PARAM = "units";
+    private static final String APPID_PARAM = "APPID";
+
+    // These are the names of the JSON objects that need to be extracted.
+    private static final String OWM_LIST = "list";
+    private static final String OWM_MESSAGE_CODE = "cod";
+    private static final String OWM_CITY_ID = "id";
+
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private final SyncHttpClient mHttpClient;
+
+    private final String mBaseUrl;
+
+    private final String mApiKey;
+
+    private final int mCitiesPerRequest;
+
+    /**
+     * @param citiesPerRequest how many city ids go into one request, at most
+     *                         {@link #MAX_CITIES_PER_REQUEST}.  1 gives one request per city.
+     */
+    GroupWeatherFetcher(SyncHttpClient httpClient, String baseUrl, String apiKey,
+            int citiesPerRequest) {
+        mHttpClient = httpClient;
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+        mCitiesPerRequest = Math.max(1, Math.min(citiesPerRequest, MAX_CITIES_PER_REQUEST));
+    }
+
+    /**
+     * Fetches the current weather of the given cities, {@code citiesPerRequest} at a time.
+     *
+     * @return the current-condition columns by city id: every weather column but location key,
+     * date, and the minimum and maximum temperatures.  Cities the server didn't answer for are
+     * missing.
+     * @throws IOException   if a request failed
+     * @throws JSONException if a response wasn't what we expect
+     */
+    Map<Long, ContentValues> fetch(List<Long> cityIds) throws IOException, JSONException {
+        Map<Long, ContentValues> weatherByCity = new HashMap<Long, ContentValues>();
+        for (int start = 0; start < cityIds.size(); start += mCitiesPerRequest) {
+            List<Long> chunk =
+                    cityIds.subList(start, Math.min(start + mCitiesPerRequest, cityIds.size()));
+            fetchChunk(chunk, weatherByCity);
+        }
+        return weatherByCity;
+    }
+
+    private void fetchChunk(List<Long> cityIds, Map<Long, ContentValues> weatherByCity)
+            throws IOException, JSONException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(ID_PARAM, TextUtils.join(",", cityIds))
+                .appendQueryParameter(UNITS_PARAM, "metric")
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+
+        SyncHttpClient.Response response = mHttpClient.get(new URL(builtUri.toString()), null);
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(response.getBody(), "UTF-8"));
+            int code = readGroup(reader, weatherByCity);
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Group request failed with code " + code);
+            }
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            response.close();
+        }
+    }
+
+    private int readGroup(JsonReader reader, Map<Long, ContentValues> weatherByCity)
+            throws IOException, JSONException {
+        int code = HttpURLConnection.HTTP_OK;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                code = Integer.parseInt(reader.nextString());
+                if (code != HttpURLConnection.HTTP_OK) {
+                    return code;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readCity(reader, weatherByCity);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return code;
+    }
+
+    private void readCity(JsonReader reader, Map<Long, ContentValues> weatherByCity)
+            throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        long cityId = -1;
+        // Calm days come without a wind direction
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 0.0);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_PRESSURE.equals(mainName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                                reader.nextDouble());
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                                (int) reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                                reader.nextDouble());
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                                    reader.nextString());
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                                    (int) reader.nextDouble());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // The 6 current-condition columns
+        if (cityId == -1 || weatherValues.size() != 6) {
+            throw new JSONException("Incomplete weather for city " + cityId);
+        }
+        weatherByCity.put(cityId, weatherValues);
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks a primary source, and when it takes longer than it usually does, a secondary source as
+ * well.  Whichever answers first wins, the other answer is dropped.
+ *
+ * "Longer than usual" is the 95th percentile of the primary's recent response times, so the
+ * secondary is only asked about one time in twenty while the primary is healthy.  When the
+ * primary fails outright the secondary is asked right away.  Either way the secondary's request
+ * takes a token of the API key's {@link TokenBucket} like any other, with none left it isn't made.
+ */
+class HedgedWeatherSource implements WeatherSource {
+
+    private static final String LOG_TAG = HedgedWeatherSource.class.getSimpleName();
+
+    // Until the primary has answered this often its response times mean little, and the default
+    // delay is used
+    static final int MIN_LATENCY_SAMPLES = 10;
+
+    // How many of the primary's most recent response times the delay is worked out from
+    static final int MAX_LATENCY_SAMPLES = 50;
+
+    static final long DEFAULT_HEDGE_DELAY_MILLIS = 3 * 1000;
+
+    // Even a very fast primary gets this long before the secondary is asked
+    static final long MIN_HEDGE_DELAY_MILLIS = 250;
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final WeatherSource mPrimary;
+
+    private final WeatherSource mSecondary;
+
+    private final long mDefaultHedgeDelayMillis;
+
+    private final TokenBucket mTokenBucket;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    // The primary's most recent response times, in milliseconds, oldest overwritten first.
+    // Guarded by this.
+    private final long[] mLatencies = new long[MAX_LATENCY_SAMPLES];
+
+    private int mLatencyCount;
+
+    private int mNextLatency;
+
+    /**
+     * @param tokenBucket what the secondary's requests take their token from
+     */
+    HedgedWeatherSource(WeatherSource primary, WeatherSource secondary,
+            TokenBucket tokenBucket) {
+        this(primary, secondary, tokenBucket, DEFAULT_HEDGE_DELAY_MILLIS);
+    }
+
+    /**
+     * @param defaultHedgeDelayMillis how long the primary gets until its response times are known
+     */
+    HedgedWeatherSource(WeatherSource primary, WeatherSource secondary, TokenBucket tokenBucket,
+            long defaultHedgeDelayMillis) {
+        mPrimary = primary;
+        mSecondary = secondary;
+        mTokenBucket = tokenBucket;
+        mDefaultHedgeDelayMillis = defaultHedgeDelayMillis;
+    }
+
+    @Override
+    public String getName() {
+        return mPrimary.getName() + "/" + mSecondary.getName();
+    }
+
+    @Override
+    public Forecast fetchForecast(final SyncLocation location,
+            final ForecastValidators validators, final SyncMetrics metrics)
+            throws IOException, JSONException {
+        CompletionService<Forecast> completion = new ExecutorCompletionService<Forecast>(mExecutor);
+        List<Future<Forecast>> futures = new ArrayList<Future<Forecast>>(2);
+        long hedgeAt = SystemClock.elapsedRealtime() + getHedgeDelayMillis();
+        futures.add(completion.submit(new Callable<Forecast>() {
+            @Override
+            public Forecast call() throws Exception {
+                long start = SystemClock.elapsedRealtime();
+                Forecast forecast = mPrimary.fetchForecast(location, validators, metrics);
+                // Even when it lost, how long it took tells the next hedge how long to wait
+                onPrimaryAnswered(SystemClock.elapsedRealtime() - start);
+                return forecast;
+            }
+        }));
+
+        Throwable failure = null;
+        int pending = 1;
+        boolean hedged = false;
+        try {
+            while (pending > 0 || !hedged) {
+                long now = SystemClock.elapsedRealtime();
+                if (!hedged && (pending == 0 || now >= hedgeAt)) {
+                    hedged = true;
+                    if (mTokenBucket.tryAcquire(1)) {
+                        Log.d(LOG_TAG, (pending == 0 ? "Primary failed" : "Primary is slow")
+                                + ", asking " + mSecondary.getName() + " for " + location);
+                        futures.add(completion.submit(new Callable<Forecast>() {
+                            @Override
+                            public Forecast call() throws Exception {
+                                // Validators only mean something to the server that handed
+                                // them out, neither ours nor the secondary's are sent to the
+                                // other one
+                                Forecast forecast = mSecondary.fetchForecast(location,
+                                        ForecastValidators.NONE, metrics);
+                                forecast.mValidators = ForecastValidators.NONE;
+                                return forecast;
+                            }
+                        }));
+                        pending++;
+                    } else {
+                        Log.d(LOG_TAG, "Over the request rate, not asking "
+                                + mSecondary.getName() + " for " + location);
+                    }
+                    // Nothing more to wait for if the primary failed and there was no token
+                    continue;
+                }
+                Future<Forecast> done = hedged
+                        ? completion.take()
+                        : completion.poll(hedgeAt - now, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    continue;
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    // Maybe the other one does better
+                    failure = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + location);
+        } finally {
+            // Whichever is still running lost, its answer is of no use anymore
+            for (Future<Forecast> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof JSONException) {
+            throw (JSONException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new RuntimeException(failure);
+    }
+
+    /**
+     * @return how long the primary gets to answer before the secondary is asked as well
+     */
+    synchronized long getHedgeDelayMillis() {
+        if (mLatencyCount < MIN_LATENCY_SAMPLES) {
+            return mDefaultHedgeDelayMillis;
+        }
+        long[] latencies = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(HEDGE_PERCENTILE * latencies.length) - 1;
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, latencies[index]);
+    }
+
+    synchronized void onPrimaryAnswered(long latencyMillis) {
+        mLatencies[mNextLatency] = latencyMillis;
+        mNextLatency = (mNextLatency + 1) % MAX_LATENCY_SAMPLES;
+        mLatencyCount = Math.min(mLatencyCount + 1, MAX_LATENCY_SAMPLES);
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull-based reader for the OpenWeatherMap 5 day / 3 hour forecast response, the counterpart of
+ * {@link ForecastJsonReader} for the hourly table.  Each step is handed to the {@link Callback}
+ * as soon as it has been read, already converted to the scaled integers the hourly table
+ * stores.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class HourlyForecastJsonReader {
+
+    // These are the names of the JSON objects that need to be extracted.
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to make sure a step carried every field we need.  A calm step may come without
+    // a wind direction, it is stored as 0.
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMPERATURE = 1 << 1;
+    private static final int FIELD_PRESSURE = 1 << 2;
+    private static final int FIELD_HUMIDITY = 1 << 3;
+    private static final int FIELD_WINDSPEED = 1 << 4;
+    private static final int FIELD_WEATHER_ID = 1 << 5;
+    private static final int FIELDS_ALL = (1 << 6) - 1;
+
+    /**
+     * Receives the parsed steps while the stream is being read.
+     */
+    interface Callback {
+
+        /**
+         * Called for every element of the "list" array, in order.
+         *
+         * @param hourlyValues the hourly columns for that step, without location key
+         */
+        void onStep(ContentValues hourlyValues);
+    }
+
+    private final Callback mCallback;
+
+    HourlyForecastJsonReader(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Reads the forecast from the given stream.  The stream is left open for its owner to drain
+     * and close.
+     *
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response did not carry one.  Reading stops as soon as an error code is seen.
+     * @throws JSONException if the response isn't the JSON we expect
+     * @throws IOException   if reading from the stream failed
+     */
+    int read(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private int readForecast(JsonReader reader) throws IOException, JSONException {
+        int code = HttpURLConnection.HTTP_OK;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                code = Integer.parseInt(reader.nextString());
+                if (code != HttpURLConnection.HTTP_OK) {
+                    return code;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    mCallback.onStep(readStep(reader));
+                }
+                reader.endArray();
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return code;
+    }
+
+    private ContentValues readStep(JsonReader reader) throws IOException, JSONException {
+        ContentValues hourlyValues = new ContentValues();
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 0);
+        int fields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, reader.nextLong());
+                fields |= FIELD_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(),
+                                        WeatherContract.HourlyEntry.TEMP_SCALE));
+                        fields |= FIELD_TEMPERATURE;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(),
+                                        WeatherContract.HourlyEntry.PRESSURE_SCALE));
+                        fields |= FIELD_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+                                (int) Math.round(reader.nextDouble()));
+                        fields |= FIELD_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(),
+                                        WeatherContract.HourlyEntry.WIND_SCALE));
+                        fields |= FIELD_WINDSPEED;
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES,
+                                (int) Math.round(reader.nextDouble()));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                                    (int) reader.nextDouble());
+                            fields |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fields != FIELDS_ALL) {
+            throw new JSONException("Incomplete hourly forecast step");
+        }
+        return hourlyValues;
+    }
+}
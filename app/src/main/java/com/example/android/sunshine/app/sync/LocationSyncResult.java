@@ -0,0 +1,46 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * What syncing one location came to.
+ */
+class LocationSyncResult {
+
+    final SyncLocation mLocation;
+
+    @SunshineSyncAdapter.LocationStatus
+    final int mStatus;
+
+    // Number of weather rows written for the location, 0 if nothing was stored
+    final int mRowsWritten;
+
+    // The sync was cancelled before the location was done with, nothing was stored and the
+    // status means nothing
+    final boolean mCancelled;
+
+    LocationSyncResult(SyncLocation location, @SunshineSyncAdapter.LocationStatus int status,
+            int rowsWritten) {
+        this(location, status, rowsWritten, false);
+    }
+
+    private LocationSyncResult(SyncLocation location,
+            @SunshineSyncAdapter.LocationStatus int status, int rowsWritten, boolean cancelled) {
+        mLocation = location;
+        mStatus = status;
+        mRowsWritten = rowsWritten;
+        mCancelled = cancelled;
+    }
+
+    static LocationSyncResult failed(SyncLocation location,
+            @SunshineSyncAdapter.LocationStatus int status) {
+        return new LocationSyncResult(location, status, 0);
+    }
+
+    static LocationSyncResult cancelled(SyncLocation location) {
+        return new LocationSyncResult(location, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, 0,
+                true);
+    }
+
+    boolean isDataUpdated() {
+        return mRowsWritten > 0;
+    }
+}
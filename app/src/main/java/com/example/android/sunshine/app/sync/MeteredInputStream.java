@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it and the time spent waiting on the stream underneath.  When a
+ * response is parsed straight off the wire, that time is the download and the rest is parsing.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private long mBytesRead;
+
+    private long mReadMillis;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int b = super.read();
+        mReadMillis += SystemClock.elapsedRealtime() - start;
+        if (b != -1) {
+            mBytesRead++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        int read = super.read(buffer, offset, count);
+        mReadMillis += SystemClock.elapsedRealtime() - start;
+        if (read > 0) {
+            mBytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        long skipped = super.skip(byteCount);
+        mReadMillis += SystemClock.elapsedRealtime() - start;
+        mBytesRead += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Re-reading would count bytes twice
+        return false;
+    }
+
+    long getBytesRead() {
+        return mBytesRead;
+    }
+
+    long getReadMillis() {
+        return mReadMillis;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Syncs a set of locations concurrently on a bounded pool of threads, so that a sync pass takes
+ * about as long as its slowest location rather than the sum of all of them.  Each location is
+ * fetched and stored on its own, so one failing location doesn't hold back the others.
+ */
+class MultiLocationSyncEngine {
+
+    private static final String LOG_TAG = MultiLocationSyncEngine.class.getSimpleName();
+
+    static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+
+    // Idle fetch threads go away after this long, we only sync every few hours
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Fetches and stores the forecast of one location.  Called concurrently for different
+     * locations.
+     */
+    interface LocationSyncer {
+        LocationSyncResult syncLocation(SyncLocation location);
+    }
+
+    private final LocationSyncer mSyncer;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    MultiLocationSyncEngine(LocationSyncer syncer, int maxConcurrentFetches) {
+        mSyncer = syncer;
+        mExecutor = new ThreadPoolExecutor(maxConcurrentFetches, maxConcurrentFetches,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "SunshineSync #" + mCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Syncs all the given locations and waits for them to finish.
+     *
+     * @return one result per location, in the order given.  If the calling thread is interrupted
+     * the outstanding locations are cancelled and left out.
+     */
+    List<LocationSyncResult> syncAll(List<SyncLocation> locations) {
+        List<LocationSyncResult> results = new ArrayList<LocationSyncResult>(locations.size());
+        if (locations.size() == 1) {
+            // Nothing to overlap with, don't bother switching threads
+            results.add(mSyncer.syncLocation(locations.get(0)));
+            return results;
+        }
+
+        List<Future<LocationSyncResult>> futures =
+                new ArrayList<Future<LocationSyncResult>>(locations.size());
+        for (final SyncLocation location : locations) {
+            futures.add(mExecutor.submit(new Callable<LocationSyncResult>() {
+                @Override
+                public LocationSyncResult call() {
+                    return mSyncer.syncLocation(location);
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            SyncLocation location = locations.get(i);
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                // A bug or a failed write on our side, not something the server sent
+                Log.e(LOG_TAG, "Sync of " + location + " failed", e.getCause());
+                results.add(LocationSyncResult.failed(location,
+                        SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+            } catch (InterruptedException e) {
+                Log.d(LOG_TAG, "Sync interrupted, cancelling the remaining locations");
+                for (int j = i; j < futures.size(); j++) {
+                    futures.get(j).cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return results;
+    }
+}
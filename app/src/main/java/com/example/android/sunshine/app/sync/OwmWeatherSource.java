@@ -0,0 +1,369 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The daily forecast from OpenWeatherMap, or from any server that answers the same API.
+ */
+class OwmWeatherSource implements WeatherSource {
+
+    private static final String LOG_TAG = OwmWeatherSource.class.getSimpleName();
+
+    static final String FORECAST_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast/daily";
+
+    // The 5 day forecast in 3 hour steps
+    static final String HOURLY_BASE_URL = "http://api.openweathermap.org/data/2.5/forecast";
+
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final int NUM_DAYS = 14;
+
+    private final Context mContext;
+
+    private final SyncHttpClient mHttpClient;
+
+    private final String mBaseUrl;
+
+    private final String mApiKey;
+
+    /**
+     * @param baseUrl the forecast endpoint, {@link #FORECAST_BASE_URL} for OWM itself
+     */
+    OwmWeatherSource(Context context, SyncHttpClient httpClient, String baseUrl, String apiKey) {
+        mContext = context.getApplicationContext();
+        mHttpClient = httpClient;
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public String getName() {
+        return Uri.parse(mBaseUrl).getHost();
+    }
+
+    @Override
+    public Forecast fetchForecast(SyncLocation location, ForecastValidators validators,
+            SyncMetrics metrics) throws IOException, JSONException {
+        String locationQuery = location.mLocationSetting;
+
+        // These need to be declared outside the try so that they can be closed in the finally
+        // block.
+        SyncHttpClient.Response response = null;
+        InputStream archivingBody = null;
+        try {
+            // Construct the URL for the OpenWeatherMap query
+            // Possible parameters are avaiable at OWM's forecast API page, at
+            // http://openweathermap.org/API#forecast
+            Uri builtUri = appendLocationParameters(Uri.parse(mBaseUrl).buildUpon(), location)
+                    .appendQueryParameter(FORMAT_PARAM, "json")
+                    .appendQueryParameter(UNITS_PARAM, "metric")
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .appendQueryParameter(APPID_PARAM, mApiKey)
+                    .build();
+            URL url = new URL(builtUri.toString());
+
+            // If we already have today's forecast for this location, ask the server to only send
+            // it again if it has changed since.
+            Map<String, String> requestHeaders = new HashMap<String, String>();
+            validators.addRequestHeaders(requestHeaders);
+
+            // Create the request to OpenWeatherMap, and open the connection
+            long connectStart = SystemClock.elapsedRealtime();
+            response = mHttpClient.get(url, requestHeaders);
+            metrics.record(SyncMetricsEntry.PHASE_CONNECT, locationQuery,
+                    SystemClock.elapsedRealtime() - connectStart, 0, SyncMetricsEntry.OUTCOME_OK);
+
+            if (!validators.isEmpty()
+                    && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed upstream, what we have stored is still current
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                return Forecast.notModified();
+            }
+            ForecastValidators responseValidators = ForecastValidators.fromResponse(response);
+
+            InputStream body = response.getBody();
+            if (body == null) {
+                throw new IOException("No response body");
+            }
+            if (BuildConfig.ARCHIVE_OWM_RESPONSES) {
+                archivingBody = ResponseArchive.forContext(mContext)
+                        .archive(locationQuery, System.currentTimeMillis(), body);
+                body = archivingBody;
+            }
+            Forecast forecast = readBody(body, locationQuery, metrics);
+            if (archivingBody != null) {
+                // Whatever follows the forecast, so the archive holds the whole response.  It is
+                // only kept once the end of the response went through it.
+                byte[] rest = new byte[1024];
+                while (archivingBody.read(rest, 0, rest.length) != -1) {
+                    // Only reading it through
+                }
+            }
+            forecast.mValidators = responseValidators;
+            return forecast;
+        } finally {
+            if (archivingBody != null) {
+                // Keeps the archive if the whole response went through it, drops it otherwise.
+                // Before the rest of the body is drained, which would bypass it.
+                try {
+                    archivingBody.close();
+                } catch (final IOException e) {
+                    Log.d(LOG_TAG, "Error archiving response", e);
+                }
+            }
+            if (response != null) {
+                // Hands the connection back for reuse by the next request
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a forecast response body, as it came from the server or from the
+     * {@link ResponseArchive}.  The body is left open for its owner.
+     */
+    static Forecast readBody(InputStream body, String locationQuery, SyncMetrics metrics)
+            throws IOException, JSONException {
+        MeteredInputStream inputStream = new MeteredInputStream(body);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Parse straight off the wire, there's no need to hold the whole response in
+            // memory first.  An empty stream shows up as an IOException here.
+            return readForecast(inputStream, locationQuery, metrics);
+        }
+        // Read the input stream into a String.  Not closing the reader, that would close the
+        // body.
+        long downloadStart = SystemClock.elapsedRealtime();
+        StringBuilder buffer = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect
+            // parsing) But it does make debugging a *lot* easier if you print out the
+            // completed buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+        metrics.record(SyncMetricsEntry.PHASE_DOWNLOAD, locationQuery,
+                SystemClock.elapsedRealtime() - downloadStart,
+                inputStream.getBytesRead(), SyncMetricsEntry.OUTCOME_OK);
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty response body");
+        }
+        long parseStart = SystemClock.elapsedRealtime();
+        Forecast forecast = parseForecast(buffer.toString());
+        metrics.record(SyncMetricsEntry.PHASE_PARSE, locationQuery,
+                SystemClock.elapsedRealtime() - parseStart, 0,
+                SyncMetricsEntry.OUTCOME_OK);
+        return forecast;
+    }
+
+    /**
+     * Read the forecast straight from the response stream.  Rows are collected as the reader
+     * emits them, so neither the raw response nor a JSON object tree is ever held in memory.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Forecast readForecast(MeteredInputStream inputStream, String locationQuery,
+            SyncMetrics metrics) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        long start = SystemClock.elapsedRealtime();
+        forecast.mStatus =
+                getStatusForMessageCode(new ForecastJsonReader(forecast).read(inputStream));
+        // Reading and parsing are interleaved, the time spent waiting on the stream is the
+        // download
+        long readMillis = inputStream.getReadMillis();
+        metrics.record(SyncMetricsEntry.PHASE_DOWNLOAD, locationQuery, readMillis,
+                inputStream.getBytesRead(), SyncMetricsEntry.OUTCOME_OK);
+        metrics.record(SyncMetricsEntry.PHASE_PARSE, locationQuery,
+                SystemClock.elapsedRealtime() - start - readMillis, 0,
+                SyncMetricsEntry.OUTCOME_OK);
+        return forecast;
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     *
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     */
+    private static Forecast parseForecast(String forecastJsonStr) throws JSONException {
+        // Now we have a String representing the complete forecast in JSON Format.
+        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
+        // into an Object hierarchy for us.
+
+        // These are the names of the JSON objects that need to be extracted.
+
+        // Location information
+        final String OWM_CITY = "city";
+        final String OWM_CITY_ID = "id";
+        final String OWM_CITY_NAME = "name";
+        final String OWM_COORD = "coord";
+
+        // Location coordinate
+        final String OWM_LATITUDE = "lat";
+        final String OWM_LONGITUDE = "lon";
+
+        // Weather information.  Each day's forecast info is an element of the "list" array.
+        final String OWM_LIST = "list";
+
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+
+        // All temperatures are children of the "temp" object.
+        final String OWM_TEMPERATURE = "temp";
+        final String OWM_MAX = "max";
+        final String OWM_MIN = "min";
+
+        final String OWM_WEATHER = "weather";
+        final String OWM_DESCRIPTION = "main";
+        final String OWM_WEATHER_ID = "id";
+
+        final String OWM_MESSAGE_CODE = "cod";
+
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int status = getStatusForMessageCode(forecastJson.getInt(OWM_MESSAGE_CODE));
+            if (status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                return Forecast.failed(status);
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        Forecast forecast = new Forecast();
+        forecast.onCity(cityJson.optLong(OWM_CITY_ID, -1), cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE), cityCoord.getDouble(OWM_LONGITUDE));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // These are the values that will be collected.
+            double pressure;
+            int humidity;
+            double windSpeed;
+            double windDirection;
+
+            double high;
+            double low;
+
+            String description;
+            int weatherId;
+
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            pressure = dayForecast.getDouble(OWM_PRESSURE);
+            humidity = dayForecast.getInt(OWM_HUMIDITY);
+            windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            description = weatherObject.getString(OWM_DESCRIPTION);
+            weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            high = temperatureObject.getDouble(OWM_MAX);
+            low = temperatureObject.getDouble(OWM_MIN);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+            forecast.onDay(i, weatherValues);
+        }
+        return forecast;
+    }
+
+    /**
+     * Maps the "cod" value OWM puts in its responses to a location status.
+     */
+    @SunshineSyncAdapter.LocationStatus
+    private static int getStatusForMessageCode(int messageCode) {
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            default:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
+
+    /**
+     * @return the request for the location's forecast in 3 hour steps
+     */
+    static URL buildHourlyUrl(SyncLocation location, String apiKey) throws IOException {
+        Uri builtUri = appendLocationParameters(Uri.parse(HOURLY_BASE_URL).buildUpon(), location)
+                .appendQueryParameter(UNITS_PARAM, "metric")
+                .appendQueryParameter(APPID_PARAM, apiKey)
+                .build();
+        return new URL(builtUri.toString());
+    }
+
+    /**
+     * Appends the query parameters that tell OWM which location we want.
+     */
+    static Uri.Builder appendLocationParameters(Uri.Builder uriBuilder, SyncLocation location) {
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (location.mHasLatLon) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(location.mLatitude))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(location.mLongitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, location.mLocationSetting);
+        }
+        return uriBuilder;
+    }
+}
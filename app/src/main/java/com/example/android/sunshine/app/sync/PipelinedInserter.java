@@ -0,0 +1,180 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Inserts rows while they are still being parsed.  The parser hands rows in one at a time, they
+ * are grouped into batches, and a writer thread bulk inserts each batch as its own transaction
+ * while the parser carries on with the next one.
+ *
+ * Only a few batches are ever queued: when the writer falls behind the parser waits for it.  So
+ * however big the response, no more than that many rows are held in memory at once.
+ *
+ * Each batch is committed on its own, so this only fits rows that stand on their own, where a
+ * sync that stops halfway leaves some new rows and some old ones rather than a broken mix.
+ */
+class PipelinedInserter {
+
+    private static final String LOG_TAG = PipelinedInserter.class.getSimpleName();
+
+    static final int DEFAULT_BATCH_SIZE = 16;
+
+    // How many full batches may wait for the writer
+    static final int DEFAULT_MAX_QUEUED_BATCHES = 2;
+
+    // Tells the writer the parser is done
+    private static final ContentValues[] END_OF_ROWS = new ContentValues[0];
+
+    private static final ExecutorService sWriterExecutor = Executors.newCachedThreadPool();
+
+    private final ContentResolver mResolver;
+
+    private final Uri mUri;
+
+    private final int mBatchSize;
+
+    private final SyncCancellation mCancellation;
+
+    private final BlockingQueue<ContentValues[]> mQueue;
+
+    private final Future<Integer> mWriter;
+
+    // Filled by the parser until it is handed to the writer
+    private List<ContentValues> mBatch;
+
+    // Once set, rows are dropped instead of queued
+    private volatile boolean mStopped;
+
+    // What the writer failed with, set before it stops writing
+    private volatile RuntimeException mWriteFailure;
+
+    /**
+     * Starts the writer.  {@link #finish()} has to be called once all rows are added, or
+     * {@link #abandon()} if they won't be.
+     *
+     * @param cancellation checked before every batch is written.  A cancelled insert writes no
+     *                     batch after that.
+     */
+    PipelinedInserter(ContentResolver resolver, Uri uri, int batchSize, int maxQueuedBatches,
+            SyncCancellation cancellation) {
+        mResolver = resolver;
+        mUri = uri;
+        mBatchSize = batchSize;
+        mCancellation = cancellation;
+        mQueue = new ArrayBlockingQueue<ContentValues[]>(maxQueuedBatches);
+        mBatch = new ArrayList<ContentValues>(batchSize);
+        mWriter = sWriterExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                return writeBatches();
+            }
+        });
+    }
+
+    /**
+     * Adds a row, waiting for the writer if the queue is full.  Called on the parser's thread.
+     */
+    void add(ContentValues row) {
+        if (mStopped || mBatch == null) {
+            return;
+        }
+        mBatch.add(row);
+        if (mBatch.size() == mBatchSize) {
+            queue(mBatch.toArray(new ContentValues[mBatch.size()]));
+            mBatch = new ArrayList<ContentValues>(mBatchSize);
+        }
+    }
+
+    /**
+     * Writes the rows still held and waits for the writer to be done.  Called on the parser's
+     * thread.
+     *
+     * @return the number of rows inserted
+     */
+    int finish() {
+        if (mBatch != null && !mBatch.isEmpty()) {
+            queue(mBatch.toArray(new ContentValues[mBatch.size()]));
+            mBatch = null;
+        }
+        // Always gets through, the writer drains the queue until it sees this
+        mStopped = true;
+        int inserted;
+        try {
+            mQueue.put(END_OF_ROWS);
+            inserted = mWriter.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Stops the writer waiting for rows that won't come
+            mWriter.cancel(true);
+            return 0;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        if (mWriteFailure != null) {
+            // Like bulkInsert itself would have
+            throw mWriteFailure;
+        }
+        return inserted;
+    }
+
+    /**
+     * Drops the rows not yet written and stops the writer, for when the parser fails halfway.
+     * Batches already written stay.  Called on the parser's thread instead of {@link #finish()}.
+     */
+    void abandon() {
+        mStopped = true;
+        mBatch = null;
+        mWriter.cancel(true);
+    }
+
+    private void queue(ContentValues[] batch) {
+        try {
+            mQueue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mStopped = true;
+        }
+    }
+
+    private int writeBatches() throws InterruptedException {
+        int inserted = 0;
+        int batches = 0;
+        boolean writing = true;
+        while (true) {
+            ContentValues[] batch = mQueue.take();
+            if (batch == END_OF_ROWS) {
+                break;
+            }
+            if (writing && mCancellation.isCancelled()) {
+                // Keeps taking batches so the parser doesn't block, but writes none of them
+                Log.d(LOG_TAG, "Cancelled after " + batches + " batches");
+                writing = false;
+                mStopped = true;
+            }
+            if (writing) {
+                try {
+                    inserted += mResolver.bulkInsert(mUri, batch);
+                    batches++;
+                } catch (RuntimeException e) {
+                    mWriteFailure = e;
+                    writing = false;
+                    mStopped = true;
+                }
+            }
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells everything that shows the weather outside the app (widgets, Muzei, the notification, the
+ * wearable) that new weather was stored.  Consumers run side by side on their own threads, so the
+ * sync thread hands them off and returns right away.  Each consumer has a deadline after which it
+ * is interrupted, and one that throws doesn't keep the others from running.
+ */
+class PostSyncPipeline {
+
+    private static final String LOG_TAG = PostSyncPipeline.class.getSimpleName();
+
+    static final int DEFAULT_MAX_CONCURRENT_CONSUMERS = 4;
+
+    // Idle consumer threads go away after this long, we only sync every few hours
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Something that has to hear about new weather after a sync.
+     */
+    abstract static class Consumer {
+
+        final String mName;
+
+        final long mDeadlineMillis;
+
+        /**
+         * @param deadlineMillis how long after being dispatched the consumer is interrupted
+         */
+        Consumer(String name, long deadlineMillis) {
+            mName = name;
+            mDeadlineMillis = deadlineMillis;
+        }
+
+        /**
+         * Called on one of the pipeline's threads.  Blocking calls should give up when the thread
+         * is interrupted, which is how the deadline is enforced.
+         */
+        abstract void onDataUpdated() throws Exception;
+    }
+
+    /**
+     * Hears how each consumer of a dispatch went.
+     */
+    interface Listener {
+
+        /**
+         * Called once per consumer, on whichever thread finished or cancelled it.
+         *
+         * @param elapsedMillis the time since the consumer was dispatched, which is what its
+         *                      deadline counts too
+         * @param outcome       {@link SyncMetricsEntry#OUTCOME_OK},
+         *                      {@link SyncMetricsEntry#OUTCOME_FAILED} or
+         *                      {@link SyncMetricsEntry#OUTCOME_DEADLINE}
+         */
+        void onConsumerFinished(Consumer consumer, long elapsedMillis, int outcome);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final ScheduledThreadPoolExecutor mDeadlineExecutor;
+
+    PostSyncPipeline(int maxConcurrentConsumers) {
+        mExecutor = new ThreadPoolExecutor(maxConcurrentConsumers, maxConcurrentConsumers,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                newThreadFactory("SunshinePostSync #"));
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        // Deadlines are kept on a thread of their own so they fire even when every consumer
+        // thread is stuck
+        mDeadlineExecutor = new ScheduledThreadPoolExecutor(1,
+                newThreadFactory("SunshinePostSync deadline #"));
+        mDeadlineExecutor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mDeadlineExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, namePrefix + mCount.incrementAndGet());
+            }
+        };
+    }
+
+    /**
+     * Starts the given consumers and returns without waiting for them.
+     *
+     * @param listener told how each consumer went, may be null
+     */
+    void dispatch(List<Consumer> consumers, Listener listener) {
+        for (Consumer consumer : consumers) {
+            submit(consumer, null, listener);
+        }
+    }
+
+    /**
+     * Starts {@code first}, and the other consumers once it has finished, failed or run out of
+     * time.  Returns without waiting for any of them.
+     *
+     * @param listener told how each consumer went, may be null
+     */
+    void dispatch(Consumer first, List<Consumer> then, Listener listener) {
+        submit(first, then, listener);
+    }
+
+    private void submit(final Consumer consumer, final List<Consumer> next,
+            final Listener listener) {
+        final long dispatched = SystemClock.elapsedRealtime();
+        // Stays at deadline if the consumer is cancelled before it gets to say otherwise
+        final AtomicInteger outcome = new AtomicInteger(SyncMetricsEntry.OUTCOME_DEADLINE);
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    consumer.onDataUpdated();
+                    outcome.set(SyncMetricsEntry.OUTCOME_OK);
+                    Log.d(LOG_TAG, consumer.mName + " done in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                } catch (InterruptedException e) {
+                    Log.d(LOG_TAG, consumer.mName + " missed its deadline of "
+                            + consumer.mDeadlineMillis + "ms");
+                } catch (Exception e) {
+                    outcome.set(SyncMetricsEntry.OUTCOME_FAILED);
+                    Log.e(LOG_TAG, consumer.mName + " failed", e);
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                if (listener != null) {
+                    listener.onConsumerFinished(consumer,
+                            SystemClock.elapsedRealtime() - dispatched, outcome.get());
+                }
+                // Also called when the deadline cancelled the consumer before it even started
+                if (next != null) {
+                    dispatch(next, listener);
+                }
+            }
+        };
+        mExecutor.execute(task);
+        mDeadlineExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Does nothing if the consumer has finished already
+                task.cancel(true);
+            }
+        }, consumer.mDeadlineMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the raw forecast responses as they came off the wire, gzip'ed, one file per response
+ * under a directory per location.  Replaying them with
+ * {@link SunshineSyncAdapter#replayArchive} runs the parse and the database writes on real
+ * payloads without a network or an API key.
+ *
+ * Archiving is off unless the build turns on BuildConfig.ARCHIVE_OWM_RESPONSES.
+ */
+class ResponseArchive {
+
+    private static final String LOG_TAG = ResponseArchive.class.getSimpleName();
+
+    static final String DIRECTORY_NAME = "owm_responses";
+
+    // Older responses of a location are dropped past this many
+    static final int MAX_RESPONSES_PER_LOCATION = 50;
+
+    private static final String SUFFIX = ".json.gz";
+
+    // A response is only renamed to its final name once it has been read to its end
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    /**
+     * An archived response.
+     */
+    static class Entry {
+
+        final String mLocationSetting;
+
+        // When the response was received, in milliseconds since the epoch
+        final long mTimestamp;
+
+        final File mFile;
+
+        Entry(String locationSetting, long timestamp, File file) {
+            mLocationSetting = locationSetting;
+            mTimestamp = timestamp;
+            mFile = file;
+        }
+    }
+
+    private final File mRoot;
+
+    ResponseArchive(File root) {
+        mRoot = root;
+    }
+
+    static ResponseArchive forContext(Context context) {
+        return new ResponseArchive(new File(context.getFilesDir(), DIRECTORY_NAME));
+    }
+
+    /**
+     * Wraps a response body so that everything read through it is archived.  The archive is only
+     * kept if the returned stream is read to its end and then closed, a response abandoned
+     * halfway is dropped.  Closing it leaves {@code body} open for its owner.
+     */
+    InputStream archive(String locationSetting, long timestamp, InputStream body)
+            throws IOException {
+        File directory = getLocationDirectory(locationSetting);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File file = new File(directory, timestamp + SUFFIX);
+        return new ArchivingInputStream(body, file);
+    }
+
+    /**
+     * @return every archived response, oldest first
+     */
+    List<Entry> list() {
+        List<Entry> entries = new ArrayList<Entry>();
+        File[] directories = mRoot.listFiles();
+        if (directories == null) {
+            return entries;
+        }
+        for (File directory : directories) {
+            String locationSetting = Uri.decode(directory.getName());
+            for (File file : listResponses(directory)) {
+                String name = file.getName();
+                entries.add(new Entry(locationSetting,
+                        Long.parseLong(name.substring(0, name.length() - SUFFIX.length())),
+                        file));
+            }
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.mTimestamp < rhs.mTimestamp ? -1
+                        : (lhs.mTimestamp == rhs.mTimestamp ? 0 : 1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * @return a stream of the response as it was received, for the caller to close
+     */
+    InputStream open(Entry entry) throws IOException {
+        return new GZIPInputStream(new BufferedInputStream(new FileInputStream(entry.mFile)));
+    }
+
+    /**
+     * @return the response as it was received
+     */
+    String read(Entry entry) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(open(entry), "UTF-8"));
+        try {
+            StringBuilder buffer = new StringBuilder();
+            char[] chars = new char[4096];
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                buffer.append(chars, 0, read);
+            }
+            return buffer.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File getLocationDirectory(String locationSetting) {
+        // Location settings can be anything the user typed in
+        return new File(mRoot, Uri.encode(locationSetting));
+    }
+
+    /**
+     * @return the complete responses in the directory, oldest first
+     */
+    private static File[] listResponses(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> responses = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                responses.add(file);
+            }
+        }
+        Collections.sort(responses, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                // Names are the timestamp, and all timestamps in the archive have the same
+                // number of digits
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+        return responses.toArray(new File[responses.size()]);
+    }
+
+    private static void prune(File directory) {
+        File[] responses = listResponses(directory);
+        for (File file : Arrays.asList(responses)
+                .subList(0, Math.max(0, responses.length - MAX_RESPONSES_PER_LOCATION))) {
+            if (!file.delete()) {
+                Log.d(LOG_TAG, "Can't delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Copies what is read through it into a gzip'ed file.  Failing to write the archive never
+     * fails the read, the archive is just dropped.
+     */
+    private static class ArchivingInputStream extends FilterInputStream {
+
+        private final File mFile;
+
+        private final File mPartialFile;
+
+        private GZIPOutputStream mOut;
+
+        private boolean mEndOfStream;
+
+        ArchivingInputStream(InputStream in, File file) throws IOException {
+            super(in);
+            mFile = file;
+            mPartialFile = new File(file.getPath() + PARTIAL_SUFFIX);
+            mOut = new GZIPOutputStream(new FileOutputStream(mPartialFile));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                write(new byte[]{(byte) b}, 0, 1);
+            } else {
+                mEndOfStream = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                write(buffer, offset, read);
+            } else if (read == -1) {
+                mEndOfStream = true;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Read instead, so the skipped bytes are archived too
+            byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+            int read = read(buffer, 0, buffer.length);
+            return read == -1 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Error archiving to " + mPartialFile, e);
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // Deleting it anyway
+            }
+            mOut = null;
+            mPartialFile.delete();
+        }
+
+        /**
+         * Completes the archive, or drops it if the response wasn't read to its end.  The
+         * response body is left to its owner.
+         */
+        @Override
+        public void close() {
+            if (mOut == null) {
+                return;
+            }
+            if (!mEndOfStream) {
+                // Cut short by an error or a cancelled sync, replaying it would only fail
+                abandon();
+                return;
+            }
+            try {
+                mOut.close();
+                mOut = null;
+                if (mPartialFile.renameTo(mFile)) {
+                    prune(mFile.getParentFile());
+                } else {
+                    mPartialFile.delete();
+                }
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Error archiving to " + mPartialFile, e);
+                mOut = null;
+                mPartialFile.delete();
+            }
+        }
+    }
+}
@@ -1,29 +1,32 @@
 package com.example.android.sunshine.app.sync;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -34,32 +37,45 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
+import android.text.TextUtils;
 import android.text.format.Time;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
+        implements MultiLocationSyncEngine.LocationSyncer {
 
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
 
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
 
-    // Interval at which to sync with the weather, in seconds.
+    // Sync extra naming the only location to sync, for a stale forecast being revalidated
+    static final String SYNC_EXTRA_LOCATION_SETTING = "location_setting";
+
+    // Interval at which to sync with the weather, in seconds.  AdaptiveSyncScheduler moves away
+    // from it as it learns how the weather and the user behave.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
 
@@ -69,6 +85,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // The hourly forecast comes in steps of 3 hours
+    private static final long HOURLY_STEP_SECONDS = 3 * 60 * 60;
+
+    // How long to wait for weather art from the network before using the bundled art instead
+    static final long ART_FETCH_TIMEOUT_MILLIS = 10 * 1000;
+
+    // How long the consumers told about new weather get before they are interrupted
+    private static final long BROADCAST_DEADLINE_MILLIS = 5 * 1000;
+
+    private static final long ART_DEADLINE_MILLIS = ART_FETCH_TIMEOUT_MILLIS + 5 * 1000;
+
+    // The other consumers wait for the art prefetch, this is the longest it can hold them up
+    private static final long ART_PREFETCH_DEADLINE_MILLIS = 20 * 1000;
+
+    // A forecast fetch that failed to reach the server is retried this many times within a sync,
+    // after a jittered delay that starts around a second and doubles every time
+    private static final int MAX_FETCH_RETRIES = 2;
+
+    private static final long RETRY_BASE_MILLIS = 1000;
+
+    private static final long RETRY_MAX_MILLIS = 8 * 1000;
+
+    // A sync that runs longer than this stops where it is, and stores nothing it hasn't already
+    private static final long SYNC_DEADLINE_MILLIS = 3 * 60 * 1000;
+
 
     static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -86,9 +127,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] BATCH_LOCATION_PROJECTION = new String[]{
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID,
+            WeatherContract.LocationEntry.COLUMN_LAST_FETCH
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_BATCH_LOCATION_ID = 0;
+
+    private static final int INDEX_BATCH_LOCATION_SETTING = 1;
+
+    private static final int INDEX_BATCH_CITY_ID = 2;
+
+    private static final int INDEX_BATCH_LAST_FETCH = 3;
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,
-            LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
+            LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID, LOCATION_STATUS_SERVER_BACKOFF})
     public @interface LocationStatus {
 
     }
@@ -103,300 +160,783 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // The server kept failing, so it isn't asked again for a while.  The stored forecast is what
+    // we show until then.
+    public static final int LOCATION_STATUS_SERVER_BACKOFF = 5;
+
+    private final SyncHttpClient mHttpClient = new SyncHttpClient();
+
+    // Where the daily forecast comes from
+    private final WeatherSource mWeatherSource;
+
+    private final MultiLocationSyncEngine mSyncEngine = new MultiLocationSyncEngine(this,
+            MultiLocationSyncEngine.DEFAULT_MAX_CONCURRENT_FETCHES);
+
+    private final PostSyncPipeline mPostSyncPipeline =
+            new PostSyncPipeline(PostSyncPipeline.DEFAULT_MAX_CONCURRENT_CONSUMERS);
+
+    // Timings of the sync in progress, recorded from the sync engine's threads too
+    private volatile SyncMetrics mMetrics = new SyncMetrics(System.currentTimeMillis());
+
+    // Whether the sync in progress should stop, checked from the sync engine's threads too
+    private volatile SyncCancellation mCancellation = SyncCancellation.NONE;
+
+    // Stops the sync in progress when it runs past its deadline
+    private final ScheduledThreadPoolExecutor mDeadlineExecutor =
+            new ScheduledThreadPoolExecutor(1);
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        WeatherSource owm = new OwmWeatherSource(context, mHttpClient,
+                OwmWeatherSource.FORECAST_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+        if (TextUtils.isEmpty(BuildConfig.HEDGE_FORECAST_BASE_URL)) {
+            mWeatherSource = owm;
+        } else {
+            // A slow answer from OWM doesn't hold the sync up, the mirror is asked as well
+            mWeatherSource = new HedgedWeatherSource(owm, new OwmWeatherSource(context,
+                    mHttpClient, BuildConfig.HEDGE_FORECAST_BASE_URL,
+                    BuildConfig.OPEN_WEATHER_MAP_API_KEY), TokenBucket.forApiKey(context));
+        }
+        mDeadlineExecutor.setKeepAliveTime(SYNC_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+        mDeadlineExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Called by the system when the sync is cancelled, e.g. because the network went away or the
+     * user turned sync off.  Requests in progress are torn down, and the sync stops before it
+     * writes anything more.
+     */
+    @Override
+    public void onSyncCanceled() {
+        Log.d(LOG_TAG, "Sync cancelled");
+        // Interrupts the sync thread, which cancels the locations still being fetched.  Done
+        // first, onPerformSync checks for it once it published its cancellation, so a sync that
+        // is just starting sees one or the other.
+        super.onSyncCanceled();
+        cancelSync(mCancellation);
+    }
+
+    private void cancelSync(SyncCancellation cancellation) {
+        cancellation.cancel();
+        mHttpClient.abortAll();
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority,
             ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        final SyncMetrics metrics = new SyncMetrics(System.currentTimeMillis());
+        mMetrics = metrics;
+        long syncStart = SystemClock.elapsedRealtime();
+        final SyncCancellation cancellation = SyncCancellation.withTimeout(SYNC_DEADLINE_MILLIS);
+        mCancellation = cancellation;
+        if (Thread.currentThread().isInterrupted()) {
+            // Cancelled while starting, onSyncCanceled may have seen the previous cancellation
+            cancelSync(cancellation);
+        }
+        ScheduledFuture<?> deadline = mDeadlineExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(LOG_TAG, "Sync ran past its deadline, stopping it");
+                cancelSync(cancellation);
+            }
+        }, SYNC_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+
+        List<SyncLocation> locations = SyncLocation.getLocationsToSync(context);
+        String onlyLocationSetting = extras.getString(SYNC_EXTRA_LOCATION_SETTING);
+        if (onlyLocationSetting != null) {
+            // Nothing, if it is no longer a location we sync
+            locations.retainAll(Collections.singleton(
+                    SyncLocation.forLocationSetting(onlyLocationSetting)));
+        }
+        int locationCount = locations.size();
+        List<LocationSyncResult> results = new ArrayList<LocationSyncResult>(locationCount);
+
+        // Locations whose forecast is less than a sync interval old only need today's current
+        // conditions, which can be fetched for many cities with one request.  The rest, and any
+        // the batch couldn't handle, have their forecast fetched side by side.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && locationCount > 1) {
+            results.addAll(syncBatched(locations));
+        }
+        results.addAll(mSyncEngine.syncAll(locations));
+        deadline.cancel(false);
+
+        boolean dataUpdated = false;
+        boolean allSynced = results.size() == locationCount;
+        for (LocationSyncResult result : results) {
+            if (!result.mCancelled) {
+                // A cancelled location never got an answer, it keeps the status it had
+                setLocationStatus(context, result.mLocation.mLocationSetting, result.mStatus);
+            }
+            dataUpdated |= result.isDataUpdated();
+            allSynced &= result.mStatus == LOCATION_STATUS_OK;
+        }
+        int outcome;
+        if (cancellation.isPastDeadline()) {
+            outcome = SyncMetricsEntry.OUTCOME_DEADLINE;
+        } else if (cancellation.isCancelled()) {
+            outcome = SyncMetricsEntry.OUTCOME_CANCELLED;
+        } else {
+            outcome = allSynced ? SyncMetricsEntry.OUTCOME_OK : SyncMetricsEntry.OUTCOME_FAILED;
+        }
+        // Kept even when the sync was stopped, the phases it got through show where it was slow
+        metrics.record(SyncMetricsEntry.PHASE_SYNC, null,
+                SystemClock.elapsedRealtime() - syncStart, metrics.getBytes(null), outcome);
+        metrics.flush(context.getContentResolver());
+
+        // Widgets, Muzei, the notification and the wearable all show what's stored, so there's
+        // nothing to tell them when no row changed.  They are told on the pipeline's threads, a
+        // slow art server mustn't keep the sync running.
+        if (dataUpdated) {
+            mPostSyncPipeline.dispatch(getArtPrefetchStage(), getPostSyncConsumers(),
+                    new PostSyncPipeline.Listener() {
+                        @Override
+                        public void onConsumerFinished(PostSyncPipeline.Consumer consumer,
+                                long elapsedMillis, int outcome) {
+                            // The sync is long done by now, so each is written on its own
+                            metrics.record(SyncMetricsEntry.PHASE_CONSUMER_PREFIX
+                                    + consumer.mName, null, elapsedMillis, 0, outcome);
+                            metrics.flush(getContext().getContentResolver());
+                        }
+                    });
+        } else {
+            Log.d(LOG_TAG, "No weather changed, skipping updates");
+        }
+        if (cancellation.isCancelled()) {
+            // Didn't get to find out whether the weather changed, leave the interval be
+            Log.d(LOG_TAG, "Sync stopped. " + results.size() + " of " + locationCount
+                    + " locations synced");
+            return;
+        }
+        if (onlyLocationSetting == null) {
+            // Syncs that keep finding nothing new come less often, and the other way around.  One
+            // location says little about the rest, so a revalidation leaves the interval be.
+            AdaptiveSyncScheduler.onSyncFinished(context, dataUpdated);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " of " + locationCount
+                + " locations synced");
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    /**
+     * Refreshes today's current conditions of the locations whose full forecast was fetched
+     * within the current sync interval, using as few group requests as possible.  Only those
+     * columns of today's row are updated, the low, high and the other days stay as the forecast
+     * had them.  The location's fetch time isn't touched either, so once the forecast is an
+     * interval old the location gets the full fetch again.  All of the updates go through a
+     * single applyBatch, which the provider commits as one transaction.
+     *
+     * @param locations the locations to sync.  Those handled here are removed from it, what's
+     *                  left still needs its forecast fetched.
+     * @return the results of the locations handled here
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private List<LocationSyncResult> syncBatched(List<SyncLocation> locations) {
+        List<LocationSyncResult> results = new ArrayList<LocationSyncResult>();
+        ContentResolver resolver = getContext().getContentResolver();
+
+        Map<String, long[]> storedLocations = new HashMap<String, long[]>();
+        Cursor cursor = resolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                BATCH_LOCATION_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " IS NOT NULL",
+                null,
+                null);
+        if (cursor == null) {
+            return results;
+        }
+        long oldestFetch = System.currentTimeMillis()
+                - AdaptiveSyncScheduler.getInterval(getContext()) * 1000L;
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getLong(INDEX_BATCH_LAST_FETCH) > oldestFetch) {
+                    storedLocations.put(cursor.getString(INDEX_BATCH_LOCATION_SETTING),
+                            new long[]{cursor.getLong(INDEX_BATCH_LOCATION_ID),
+                                    cursor.getLong(INDEX_BATCH_CITY_ID)});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        List<SyncLocation> batched = new ArrayList<SyncLocation>();
+        List<Long> cityIds = new ArrayList<Long>();
+        for (SyncLocation location : locations) {
+            long[] stored = storedLocations.get(location.mLocationSetting);
+            if (stored != null) {
+                batched.add(location);
+                cityIds.add(stored[1]);
+            }
+        }
+        if (batched.size() < 2) {
+            // A group request of one saves nothing over a conditional forecast request
+            return results;
+        }
 
+        CircuitBreaker breaker =
+                CircuitBreaker.forEndpoint(getContext(), CircuitBreaker.ENDPOINT_GROUP);
+        int requests = (cityIds.size() + GroupWeatherFetcher.MAX_CITIES_PER_REQUEST - 1)
+                / GroupWeatherFetcher.MAX_CITIES_PER_REQUEST;
+        if (!breaker.allowRequest()) {
+            return results;
+        }
+        if (!TokenBucket.forApiKey(getContext()).tryAcquire(requests)) {
+            // The per-city path is rate limited too, it decides what's left to fetch
+            Log.d(LOG_TAG, "Over the request rate, skipping the batched fetch");
+            breaker.onSkipped();
+            return results;
+        }
+        Map<Long, ContentValues> weatherByCity;
+        long batchStart = SystemClock.elapsedRealtime();
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+            weatherByCity = new GroupWeatherFetcher(mHttpClient,
+                    GroupWeatherFetcher.GROUP_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY,
+                    GroupWeatherFetcher.MAX_CITIES_PER_REQUEST).fetch(cityIds);
+            breaker.onSuccess();
+            mMetrics.record(SyncMetricsEntry.PHASE_BATCH, null,
+                    SystemClock.elapsedRealtime() - batchStart, 0, SyncMetricsEntry.OUTCOME_OK);
+        } catch (IOException | JSONException e) {
+            if (mCancellation.isCancelled()) {
+                // Torn down under us, the server did nothing wrong
+                breaker.onSkipped();
+            } else if (e instanceof IOException) {
+                breaker.onFailure();
             } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+                breaker.onSuccess();
             }
+            mMetrics.record(SyncMetricsEntry.PHASE_BATCH, null,
+                    SystemClock.elapsedRealtime() - batchStart, 0,
+                    SyncMetricsEntry.OUTCOME_FAILED);
+            // Leave them all to the per-city path, it reports its own errors
+            Log.d(LOG_TAG, "Batched fetch failed, falling back to one request per city", e);
+            return results;
+        }
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianToday = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+        // As the provider stored it
+        long today = WeatherContract.normalizeDate(dayTime.setJulianDay(julianToday));
+
+        List<ContentValues> rows = new ArrayList<ContentValues>(batched.size());
+        List<SyncLocation> refreshed = new ArrayList<SyncLocation>(batched.size());
+        for (int i = 0; i < batched.size(); i++) {
+            SyncLocation location = batched.get(i);
+            ContentValues weatherValues = weatherByCity.get(cityIds.get(i));
+            if (weatherValues == null) {
+                // Not in the response, this one gets the full fetch instead
+                continue;
+            }
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                    storedLocations.get(location.mLocationSetting)[0]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, today);
+            rows.add(weatherValues);
+            refreshed.add(location);
+            locations.remove(location);
+        }
 
-            URL url = new URL(builtUri.toString());
+        if (mCancellation.isCancelled()) {
+            // Nothing written yet.  The locations are left to the per-city path, which stops
+            // right away too.
+            locations.addAll(refreshed);
+            return results;
+        }
+        long writeStart = SystemClock.elapsedRealtime();
+        ForecastDiff diff = ForecastDiff.compute(resolver, rows);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(diff.mChanged.size());
+        for (ContentValues row : diff.mChanged) {
+            ContentValues conditions = new ContentValues(row);
+            long locationId = conditions.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            conditions.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            conditions.remove(WeatherContract.WeatherEntry.COLUMN_DATE);
+            operations.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(conditions)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                    + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{Long.toString(locationId), Long.toString(today)})
+                    .build());
+        }
+        Map<Long, Integer> writtenByLocation = new HashMap<Long, Integer>();
+        if (!operations.isEmpty()) {
+            ContentProviderResult[] updates;
+            try {
+                updates = resolver.applyBatch(
+                        getContext().getString(R.string.content_authority), operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                // Rolled back, they all get the full fetch instead
+                Log.e(LOG_TAG, "Error storing the batched weather", e);
+                mMetrics.record(SyncMetricsEntry.PHASE_DB_WRITE, null,
+                        SystemClock.elapsedRealtime() - writeStart, 0,
+                        SyncMetricsEntry.OUTCOME_FAILED);
+                locations.addAll(refreshed);
+                return results;
+            }
+            for (int i = 0; i < updates.length; i++) {
+                long locationId = diff.mChanged.get(i)
+                        .getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Integer written = writtenByLocation.get(locationId);
+                writtenByLocation.put(locationId,
+                        (written == null ? 0 : written) + updates[i].count);
+            }
+        }
+        mMetrics.record(SyncMetricsEntry.PHASE_DB_WRITE, null,
+                SystemClock.elapsedRealtime() - writeStart, 0, SyncMetricsEntry.OUTCOME_OK);
+        for (SyncLocation location : refreshed) {
+            Integer written =
+                    writtenByLocation.get(storedLocations.get(location.mLocationSetting)[0]);
+            results.add(new LocationSyncResult(location, LOCATION_STATUS_OK,
+                    written == null ? 0 : written));
+        }
+        Log.d(LOG_TAG, "Refreshed " + refreshed.size() + " of " + batched.size()
+                + " locations with a batched fetch: " + diff);
+        return results;
+    }
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+    /**
+     * Fetches the forecast of one location and stores it.  Called on the sync engine's threads,
+     * possibly for several locations at once.  A location that is already being fetched, or was
+     * just fetched, isn't fetched again.
+     */
+    @Override
+    public LocationSyncResult syncLocation(SyncLocation location) {
+        return SyncCoordinator.getInstance().sync(location,
+                new MultiLocationSyncEngine.LocationSyncer() {
+                    @Override
+                    public LocationSyncResult syncLocation(SyncLocation location) {
+                        return fetchLocation(location);
+                    }
+                });
+    }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
+    private LocationSyncResult fetchLocation(SyncLocation location) {
+        if (mCancellation.isCancelled()) {
+            return LocationSyncResult.cancelled(location);
+        }
+        long start = SystemClock.elapsedRealtime();
+        LocationSyncResult result = syncDailyForecastWithRetries(location);
+        if (result.mStatus == LOCATION_STATUS_OK
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // The hourly forecast is extra detail, not getting it doesn't fail the location
+            syncHourlyForecast(location);
+        }
+        mMetrics.record(SyncMetricsEntry.PHASE_LOCATION, location.mLocationSetting,
+                SystemClock.elapsedRealtime() - start,
+                mMetrics.getBytes(location.mLocationSetting),
+                result.mCancelled ? SyncMetricsEntry.OUTCOME_CANCELLED : result.mStatus);
+        return result;
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+    /**
+     * Fetches the daily forecast, retrying when the server can't be reached, unless the server
+     * has been failing so much that its circuit breaker is open.
+     */
+    private LocationSyncResult syncDailyForecastWithRetries(SyncLocation location) {
+        CircuitBreaker breaker =
+                CircuitBreaker.forEndpoint(getContext(), CircuitBreaker.ENDPOINT_DAILY);
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                Log.d(LOG_TAG, "Server is backing off, keeping the stored forecast for "
+                        + location);
+                return LocationSyncResult.failed(location, LOCATION_STATUS_SERVER_BACKOFF);
             }
+            if (!TokenBucket.forApiKey(getContext()).tryAcquire(1)) {
+                // What's stored is what we have, the status stays what the last fetch left
+                Log.d(LOG_TAG, "Over the request rate, keeping the stored forecast for "
+                        + location);
+                breaker.onSkipped();
+                return LocationSyncResult.failed(location,
+                        Utility.getLocationStatus(getContext(), location.mLocationSetting));
+            }
+            LocationSyncResult result = syncDailyForecast(location);
+            if (result.mCancelled) {
+                // Says nothing about the server
+                breaker.onSkipped();
+                return result;
+            }
+            if (result.mStatus != LOCATION_STATUS_SERVER_DOWN) {
+                // Even an invalid response means the server is up
+                breaker.onSuccess();
+                return result;
+            }
+            breaker.onFailure();
+            if (attempt == MAX_FETCH_RETRIES) {
+                return result;
+            }
+            long backoffMillis = CircuitBreaker.getBackoffMillis(attempt, RETRY_BASE_MILLIS,
+                    RETRY_MAX_MILLIS);
+            if (backoffMillis >= mCancellation.getRemainingMillis()) {
+                // The retry wouldn't get to run before the deadline
+                return result;
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return LocationSyncResult.cancelled(location);
+            }
+        }
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+    private LocationSyncResult syncDailyForecast(SyncLocation location) {
+        ContentResolver resolver = getContext().getContentResolver();
+        String locationSetting = location.mLocationSetting;
+        try {
+            // If we already have today's forecast for this location, the source only sends it
+            // again if it has changed since
+            WeatherSource.Forecast forecast = mWeatherSource.fetchForecast(location,
+                    ForecastValidators.load(resolver, locationSetting), mMetrics);
+            if (forecast.mNotModified) {
+                // What we have stored is still current.  No need to write or tell anybody
+                // about it.
+                ForecastValidators.markRevalidated(resolver, locationSetting,
+                        System.currentTimeMillis());
+                return new LocationSyncResult(location, LOCATION_STATUS_OK, 0);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            return storeForecast(location, forecast);
         } catch (IOException e) {
+            if (mCancellation.isCancelled()) {
+                // The request was torn down under us, the server did nothing wrong
+                Log.d(LOG_TAG, "Fetch of " + locationSetting + " cancelled");
+                return LocationSyncResult.cancelled(location);
+            }
             Log.d(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return LocationSyncResult.failed(location, LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.d(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.d(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            return LocationSyncResult.failed(location, LOCATION_STATUS_SERVER_INVALID);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Stores the forecast a source answered with, unless the sync was cancelled in the meantime.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-            String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    private LocationSyncResult storeForecast(SyncLocation location,
+            WeatherSource.Forecast forecast) {
+        if (forecast.mStatus != LOCATION_STATUS_OK) {
+            return LocationSyncResult.failed(location, forecast.mStatus);
+        }
+        if (mCancellation.isCancelled()) {
+            // Last chance to stop, after this the forecast is written
+            return LocationSyncResult.cancelled(location);
+        }
+        int inserted = storeWeatherData(location.mLocationSetting, forecast.mCityId,
+                forecast.mCityName, forecast.mCityLatitude, forecast.mCityLongitude,
+                forecast.mDays, forecast.mValidators);
+        if (inserted == -1) {
+            return LocationSyncResult.failed(location, LOCATION_STATUS_UNKNOWN);
+        }
+        return new LocationSyncResult(location, LOCATION_STATUS_OK, inserted);
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Fetches the 3 hour forecast of a location whose daily forecast was just stored, and stores
+     * it in the hourly table while it is being read.  Steps that have passed are dropped.
+     *
+     * @return the number of steps stored
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int syncHourlyForecast(SyncLocation location) {
+        CircuitBreaker breaker =
+                CircuitBreaker.forEndpoint(getContext(), CircuitBreaker.ENDPOINT_HOURLY);
+        if (!breaker.allowRequest()) {
+            return 0;
+        }
+        if (!TokenBucket.forApiKey(getContext()).tryAcquire(1)) {
+            breaker.onSkipped();
+            return 0;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        // Stored along with the daily forecast just before
+        final long locationId = getLocationId(location.mLocationSetting);
+        if (locationId == -1) {
+            return 0;
+        }
+        SyncHttpClient.Response response = null;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            response = mHttpClient.get(OwmWeatherSource.buildHourlyUrl(location,
+                    BuildConfig.OPEN_WEATHER_MAP_API_KEY), null);
+            MeteredInputStream inputStream = new MeteredInputStream(response.getBody());
+
+            // Steps are written in small batches while the rest are still being read, so the
+            // whole forecast is never held in memory.  Each step replaces its own row, a sync
+            // cancelled halfway leaves a mix of new and old steps that are all valid.
+            final PipelinedInserter inserter = new PipelinedInserter(resolver,
+                    WeatherContract.HourlyEntry.CONTENT_URI, PipelinedInserter.DEFAULT_BATCH_SIZE,
+                    PipelinedInserter.DEFAULT_MAX_QUEUED_BATCHES, mCancellation);
+            int code;
+            int inserted;
+            try {
+                code = new HourlyForecastJsonReader(new HourlyForecastJsonReader.Callback() {
+                    @Override
+                    public void onStep(ContentValues hourlyValues) {
+                        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+                        inserter.add(hourlyValues);
+                    }
+                }).read(inputStream);
+                inserted = inserter.finish();
+            } catch (IOException | JSONException e) {
+                inserter.abandon();
+                throw e;
+            } catch (RuntimeException e) {
+                // Storing the steps failed, the server did nothing wrong.  The daily forecast is
+                // already stored, so the location still synced.
+                inserter.abandon();
+                breaker.onSuccess();
+                Log.e(LOG_TAG, "Error storing the hourly forecast for " + location, e);
+                mMetrics.record(SyncMetricsEntry.PHASE_HOURLY, location.mLocationSetting,
+                        SystemClock.elapsedRealtime() - start, inputStream.getBytesRead(),
+                        SyncMetricsEntry.OUTCOME_FAILED);
+                return 0;
+            }
+            breaker.onSuccess();
+            mMetrics.record(SyncMetricsEntry.PHASE_HOURLY, location.mLocationSetting,
+                    SystemClock.elapsedRealtime() - start, inputStream.getBytesRead(),
+                    code == HttpURLConnection.HTTP_OK
+                            ? SyncMetricsEntry.OUTCOME_OK : SyncMetricsEntry.OUTCOME_FAILED);
+            if (code != HttpURLConnection.HTTP_OK || inserted == 0) {
+                Log.d(LOG_TAG, "No hourly forecast for " + location + ", code " + code);
+                return 0;
+            }
 
-        final String OWM_MESSAGE_CODE = "cod";
+            // Keep the step we're in, drop the ones before it
+            long stepStart = System.currentTimeMillis() / 1000 - HOURLY_STEP_SECONDS;
+            resolver.delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND "
+                            + WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                    new String[]{Long.toString(locationId), Long.toString(stepStart)});
+            Log.d(LOG_TAG, "Stored " + inserted + " hourly steps for " + location);
+            return inserted;
+        } catch (IOException e) {
+            if (mCancellation.isCancelled()) {
+                breaker.onSkipped();
+                return 0;
+            }
+            breaker.onFailure();
+            Log.d(LOG_TAG, "Error fetching the hourly forecast for " + location, e);
+            return 0;
+        } catch (JSONException e) {
+            breaker.onSuccess();
+            Log.d(LOG_TAG, "Error reading the hourly forecast for " + location, e);
+            return 0;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
 
+    /**
+     * @return the row ID of the given location setting, or -1 if it isn't stored
+     */
+    private long getLocationId(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
 
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+    /**
+     * Stores every response in the archive again, oldest first, as if each had just been
+     * fetched.  Goes through the same parse and database writes as a sync, without the network,
+     * reading the archived file shows up as the download.  Meant for measuring those on real
+     * payloads, it isn't part of a normal sync.
+     *
+     * @return one result per archived response
+     */
+    List<LocationSyncResult> replayArchive(ResponseArchive archive) {
+        mMetrics = new SyncMetrics(System.currentTimeMillis());
+        mCancellation = SyncCancellation.NONE;
+        List<LocationSyncResult> results = new ArrayList<LocationSyncResult>();
+        for (ResponseArchive.Entry entry : archive.list()) {
+            SyncLocation location = SyncLocation.forLocationSetting(entry.mLocationSetting);
+            try {
+                WeatherSource.Forecast forecast;
+                InputStream body = archive.open(entry);
+                try {
+                    forecast = OwmWeatherSource.readBody(body, entry.mLocationSetting, mMetrics);
+                } finally {
+                    body.close();
                 }
+                results.add(storeForecast(location, forecast));
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Error reading " + entry.mFile, e);
+                results.add(LocationSyncResult.failed(location, LOCATION_STATUS_UNKNOWN));
+            } catch (JSONException e) {
+                Log.d(LOG_TAG, "Archived response " + entry.mFile + " is invalid", e);
+                results.add(LocationSyncResult.failed(location, LOCATION_STATUS_SERVER_INVALID));
             }
+        }
+        // The parse and write timings show up in the sync metrics like a sync's would
+        mMetrics.flush(getContext().getContentResolver());
+        return results;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    /**
+     * Stores a parsed forecast, replacing the days that changed and dropping the location's old
+     * days.  The location, the changed rows and the delete go in through a single applyBatch,
+     * which the provider commits as one transaction: readers never see half a sync, and loaders
+     * are told about it once.
+     *
+     * @param days       one ContentValues per day, starting today, holding the weather columns
+     *                   without location key and date.  These are filled in here.
+     * @param validators the validators of the response the forecast was read from
+     * @return the number of rows inserted, 0 if the forecast is the same as the stored one, or
+     * -1 if it couldn't be stored
+     */
+    private int storeWeatherData(String locationSetting, long cityId, String cityName,
+            double cityLatitude, double cityLongitude, List<ContentValues> days,
+            ForecastValidators validators) {
+        long writeStart = SystemClock.elapsedRealtime();
+        ContentResolver resolver = getContext().getContentResolver();
+        // -1 for a new location, whose row ID is only known once the batch inserted it
+        long locationId = getLocationId(locationSetting);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(buildLocationOperation(locationId, locationSetting, cityId, cityName,
+                cityLatitude, cityLongitude, validators));
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        dayTime = new Time();
+
+        for (int i = 0; i < days.size(); i++) {
+            ContentValues weatherValues = days.get(i);
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            if (locationId != -1) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+        }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        List<ContentValues> changed;
+        if (locationId == -1) {
+            // Nothing is stored for a new location, every day is a change
+            changed = days;
+        } else {
+            // Only the days that changed are written, the rest are left alone so that loaders
+            // aren't told about changes that didn't happen
+            ForecastDiff diff = ForecastDiff.compute(resolver, days);
+            Log.d(LOG_TAG, "Forecast for " + locationSetting + ": " + diff);
+            changed = diff.mChanged;
+        }
+        for (ContentValues weatherValues : changed) {
+            ContentProviderOperation.Builder builder = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues);
+            if (locationId == -1) {
+                // The location inserted by the first operation
+                builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0);
+            }
+            operations.add(builder.build());
+        }
+        if (locationId != -1 && !days.isEmpty()) {
+            // delete old data so we don't build up an endless history
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                    + WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(locationId),
+                                    Long.toString(dayTime.setJulianDay(julianStartDay - 1))})
+                    .build());
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        int inserted;
+        try {
+            resolver.applyBatch(getContext().getString(R.string.content_authority), operations);
+            inserted = changed.size();
+        } catch (RemoteException | OperationApplicationException e) {
+            // Rolled back, what was stored before is still there
+            Log.e(LOG_TAG, "Error storing the forecast for " + locationSetting, e);
+            mMetrics.record(SyncMetricsEntry.PHASE_DB_WRITE, locationSetting,
+                    SystemClock.elapsedRealtime() - writeStart, 0,
+                    SyncMetricsEntry.OUTCOME_FAILED);
+            return -1;
+        }
+        mMetrics.record(SyncMetricsEntry.PHASE_DB_WRITE, locationSetting,
+                SystemClock.elapsedRealtime() - writeStart, 0, SyncMetricsEntry.OUTCOME_OK);
+        Log.d(LOG_TAG, "Stored " + locationSetting + ". " + inserted + " Inserted");
+        return inserted;
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver()
-                        .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+    /**
+     * @return the stage that fetches the art of the new forecast, run before anything that shows
+     * it so none of them has to go to the network
+     */
+    private PostSyncPipeline.Consumer getArtPrefetchStage() {
+        final Context context = getContext();
+        final int[][] sizeBuckets = new int[][]{
+                getLargeIconSize(context.getResources()),
+                {SyncWithWear.IMG_WIDTH, SyncWithWear.IMG_HEIGHT}
+        };
+        return new PostSyncPipeline.Consumer("Artwork", ART_PREFETCH_DEADLINE_MILLIS) {
+            @Override
+            void onDataUpdated() throws InterruptedException {
+                new ArtPrefetcher(context, sizeBuckets).prefetch(ART_FETCH_TIMEOUT_MILLIS);
+            }
+        };
+    }
 
+    /**
+     * @return what needs to hear about new weather, each with the time it gets before it is cut
+     * off.  The ones that fetch artwork get long enough to fall back to the bundled art.
+     */
+    private List<PostSyncPipeline.Consumer> getPostSyncConsumers() {
+        List<PostSyncPipeline.Consumer> consumers = new ArrayList<PostSyncPipeline.Consumer>();
+        consumers.add(new PostSyncPipeline.Consumer("Widgets", BROADCAST_DEADLINE_MILLIS) {
+            @Override
+            void onDataUpdated() {
                 updateWidgets();
+            }
+        });
+        consumers.add(new PostSyncPipeline.Consumer("Muzei", BROADCAST_DEADLINE_MILLIS) {
+            @Override
+            void onDataUpdated() {
                 updateMuzei();
+            }
+        });
+        consumers.add(new PostSyncPipeline.Consumer("Notification", ART_DEADLINE_MILLIS) {
+            @Override
+            void onDataUpdated() {
                 notifyWeather();
+            }
+        });
+        consumers.add(new PostSyncPipeline.Consumer("Wear", ART_DEADLINE_MILLIS) {
+            @Override
+            void onDataUpdated() {
                 new SyncWithWear().syncWithWear(getContext());
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.d(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        }
+        });
+        return consumers;
     }
 
     private void updateWidgets() {
@@ -417,6 +957,27 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * @return the width and height of the notification's large icon
+     */
+    private static int[] getLargeIconSize(Resources resources) {
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources
+                .getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources
+                        .getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources
+                .getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources
+                        .getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        return new int[]{largeIconWidth, largeIconHeight};
+    }
+
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
@@ -453,20 +1014,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
                     String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources
-                            .getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources
-                                    .getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources
-                            .getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources
-                                    .getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                    int[] largeIconSize = getLargeIconSize(resources);
 
                     // Retrieve the large icon
                     Bitmap largeIcon;
@@ -476,8 +1024,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                                 .asBitmap()
                                 .error(artResourceId)
                                 .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
+                                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                                .into(largeIconSize[0], largeIconSize[1])
+                                .get(ART_FETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
                         Log.d(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
@@ -535,73 +1085,65 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to build the operation storing a location in the weather database.
      *
+     * @param locationId      The row ID of the location if it is stored already, or -1
      * @param locationSetting The location string used to request updates from the server.
+     * @param cityId          The OWM id of the city, or -1 if unknown
      * @param cityName        A human-readable city name, e.g "Mountain View"
      * @param lat             the latitude of the city
      * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @param validators      the HTTP validators of the forecast we're about to store
+     * @return an update of the stored location, or the insert of a new one
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+    private static ContentProviderOperation buildLocationOperation(long locationId,
+            String locationSetting, long cityId, String cityName, double lat, double lon,
+            ForecastValidators validators) {
+        long fetchTime = System.currentTimeMillis();
+        ContentValues locationValues = new ContentValues();
+        // Remember the validators of this response for the next sync
+        validators.putInto(locationValues, fetchTime);
+        if (cityId != -1) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+        }
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues
-                    .put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        if (locationId != -1) {
+            return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)})
+                    .build();
+        }
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build();
     }
 
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
-    public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
-        Account account = getSyncAccount(context);
-        String authority = context.getString(R.string.content_authority);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            // we can enable inexact timers in our periodic sync
-            SyncRequest request = new SyncRequest.Builder().
-                    syncPeriodic(syncInterval, flexTime).
-                    setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
-            ContentResolver.requestSync(request);
-        } else {
-            ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
-        }
+    public static void configurePeriodicSync(Context context, final int syncInterval,
+            final int flexTime) {
+        SyncAccountRegistry.runWithAccount(context, new SyncAccountRegistry.AccountCallback() {
+            @Override
+            public void onAccount(Account account, String authority) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    // we can enable inexact timers in our periodic sync
+                    SyncRequest request = new SyncRequest.Builder().
+                            syncPeriodic(syncInterval, flexTime).
+                            setSyncAdapter(account, authority).
+                            setExtras(new Bundle()).build();
+                    ContentResolver.requestSync(request);
+                } else {
+                    ContentResolver.addPeriodicSync(account,
+                            authority, new Bundle(), syncInterval);
+                }
+            }
+        });
     }
 
     /**
@@ -610,54 +1152,47 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
+        final Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        SyncAccountRegistry.runWithAccount(context, new SyncAccountRegistry.AccountCallback() {
+            @Override
+            public void onAccount(Account account, String authority) {
+                ContentResolver.requestSync(account, authority, bundle);
+            }
+        });
     }
 
     /**
-     * Helper method to get the fake account to be used with SyncAdapter, or make a new one
-     * if the fake account doesn't exist yet.  If we make a new account, we call the
-     * onAccountCreated method so we can initialize things.
+     * Has the sync adapter fetch one location's forecast in the background, leaving the other
+     * locations to the periodic sync.
      *
-     * @param context The context used to access the account service
-     * @return a fake account.
+     * @param context         The context used to access the account service
+     * @param locationSetting the location to sync
      */
-    public static Account getSyncAccount(Context context) {
-        // Get an instance of the Android account manager
-        AccountManager accountManager =
-                (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
-
-        // Create the account type and default account
-        Account newAccount = new Account(
-                context.getString(R.string.app_name),
-                context.getString(R.string.sync_account_type));
-
-        // If the password doesn't exist, the account doesn't exist
-        if (null == accountManager.getPassword(newAccount)) {
-
-        /*
-         * Add the account and account type, no password or user data
-         * If successful, return the Account object, otherwise report an error.
-         */
-            if (!accountManager.addAccountExplicitly(newAccount, "", null)) {
-                return null;
+    static void syncLocation(Context context, String locationSetting) {
+        final Bundle bundle = new Bundle();
+        bundle.putString(SYNC_EXTRA_LOCATION_SETTING, locationSetting);
+        SyncAccountRegistry.runWithAccount(context, new SyncAccountRegistry.AccountCallback() {
+            @Override
+            public void onAccount(Account account, String authority) {
+                ContentResolver.requestSync(account, authority, bundle);
             }
-            /*
-             * If you don't set android:syncable="true" in
-             * in your <provider> element in the manifest,
-             * then call ContentResolver.setIsSyncable(account, AUTHORITY, 1)
-             * here.
-             */
+        });
+    }
 
-            onAccountCreated(newAccount, context);
-        }
-        return newAccount;
+    /**
+     * Helper method to have the sync adapter sync shortly, for changes that tend to come in
+     * bursts such as settings being edited.  Requests made within a second of each other
+     * result in a single sync.  Must be called on the main thread.
+     *
+     * @param context The context used to access the account service
+     */
+    public static void syncSoon(Context context) {
+        SyncCoordinator.getInstance().requestDebouncedSync(context);
     }
 
-    private static void onAccountCreated(Account newAccount, Context context) {
+    static void onAccountCreated(Account newAccount, Context context) {
         /*
          * Since we've created an account
          */
@@ -676,21 +1211,40 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         syncImmediately(context);
     }
 
+    /**
+     * Makes sure the sync account exists, creating it and starting syncing if it doesn't, and
+     * lets the provider ask for a sync when it serves a stale forecast.  Safe to call on the
+     * main thread, the account is looked up in the background.
+     */
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
+        // The forecast list, the one asking for a maximum age, is only shown once this ran
+        WeatherProvider.setStaleForecastHook(new WeatherProvider.StaleForecastHook() {
+            @Override
+            public void onStaleForecast(Context providerContext, String locationSetting) {
+                syncLocation(providerContext, locationSetting);
+            }
+        });
+        SyncAccountRegistry.runWithAccount(context, new SyncAccountRegistry.AccountCallback() {
+            @Override
+            public void onAccount(Account account, String authority) {
+                // Nothing more to do, getting here means the account exists
+            }
+        });
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the status of a location into shared preference.  This function should not be called
+     * from the UI thread because it uses commit to write to the shared preferences.
      *
-     * @param c              Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
+     * @param c               Context to get the PreferenceManager from.
+     * @param locationSetting The location the status is about
+     * @param locationStatus  The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus) {
+    static private void setLocationStatus(Context c, String locationSetting,
+            @LocationStatus int locationStatus) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
         spe.commit();
     }
 }
\ No newline at end of file
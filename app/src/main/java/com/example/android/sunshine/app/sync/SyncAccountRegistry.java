@@ -0,0 +1,163 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.R;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The account and authority the sync runs under.  Looking the account up goes through the
+ * AccountManager, a call into another process, so it is done once per process and the result
+ * kept until the accounts on the device change.  Callers on the main thread never wait for it.
+ */
+class SyncAccountRegistry {
+
+    private static final String LOG_TAG = SyncAccountRegistry.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Receives the sync account once it is known.
+     */
+    interface AccountCallback {
+
+        void onAccount(Account account, String authority);
+    }
+
+    private static final Object sLock = new Object();
+
+    // The account as last checked to exist, null until then or once the accounts changed
+    private static volatile Account sAccount;
+
+    private static volatile String sAuthority;
+
+    // Guarded by sLock
+    private static boolean sReceiverRegistered;
+
+    // Looks the account up for callers on the main thread
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private SyncAccountRegistry() {
+    }
+
+    /**
+     * Returns the sync account, creating it if it doesn't exist yet.  Only the first call, and
+     * the first after the accounts on the device changed, go to the AccountManager.  Mustn't be
+     * called on the main thread, use {@link #runWithAccount} there.
+     *
+     * @return the account, or null if it couldn't be created
+     */
+    static Account getAccount(Context context) {
+        Account account = sAccount;
+        if (account != null) {
+            return account;
+        }
+        Context appContext = context.getApplicationContext();
+        boolean created = false;
+        synchronized (sLock) {
+            account = sAccount;
+            if (account != null) {
+                return account;
+            }
+            registerReceiver(appContext);
+            AccountManager accountManager =
+                    (AccountManager) appContext.getSystemService(Context.ACCOUNT_SERVICE);
+
+            // Create the account type and default account
+            account = new Account(appContext.getString(R.string.app_name),
+                    appContext.getString(R.string.sync_account_type));
+
+            // If the password doesn't exist, the account doesn't exist
+            if (null == accountManager.getPassword(account)) {
+                // Add the account and account type, no password or user data
+                if (!accountManager.addAccountExplicitly(account, "", null)) {
+                    Log.e(LOG_TAG, "Couldn't add the sync account");
+                    return null;
+                }
+                created = true;
+            }
+            sAccount = account;
+        }
+        if (created) {
+            // Outside the lock, this schedules syncs which ask for the account again
+            SunshineSyncAdapter.onAccountCreated(account, appContext);
+        }
+        return account;
+    }
+
+    static String getAuthority(Context context) {
+        String authority = sAuthority;
+        if (authority == null) {
+            authority = context.getString(R.string.content_authority);
+            sAuthority = authority;
+        }
+        return authority;
+    }
+
+    /**
+     * Hands the sync account to the callback.  If the account is known, or this isn't the main
+     * thread, that happens before returning.  Otherwise the account is looked up, and the
+     * callback called, on a background thread.
+     */
+    static void runWithAccount(Context context, final AccountCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        Account account = sAccount;
+        if (account == null && Looper.myLooper() == Looper.getMainLooper()) {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callWithAccount(appContext, callback, getAccount(appContext));
+                }
+            });
+            return;
+        }
+        if (account == null) {
+            account = getAccount(appContext);
+        }
+        callWithAccount(appContext, callback, account);
+    }
+
+    private static void callWithAccount(Context context, AccountCallback callback,
+            Account account) {
+        if (account != null) {
+            callback.onAccount(account, getAuthority(context));
+        }
+    }
+
+    /**
+     * Forgets the account, the next caller checks that it still exists.
+     */
+    static void invalidate() {
+        sAccount = null;
+    }
+
+    private static void registerReceiver(Context appContext) {
+        if (sReceiverRegistered) {
+            return;
+        }
+        // Also sent when the user removes the account in the system settings
+        appContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Log.d(LOG_TAG, "Accounts changed, checking the sync account again");
+                invalidate();
+            }
+        }, new IntentFilter(AccountManager.LOGIN_ACCOUNTS_CHANGED_ACTION));
+        sReceiverRegistered = true;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+/**
+ * Whether the sync in progress should stop: either the system cancelled it, or it ran past its
+ * deadline.  Long running steps check it between each other, and it is checked one last time
+ * before anything is written, so a sync that stops leaves the database as it found it.
+ */
+class SyncCancellation {
+
+    // A cancellation that never fires, for work done outside of a sync.  Shared, so cancelling
+    // it does nothing.
+    static final SyncCancellation NONE = new SyncCancellation(Long.MAX_VALUE) {
+        @Override
+        void cancel() {
+        }
+    };
+
+    // In elapsed realtime
+    private final long mDeadline;
+
+    private volatile boolean mCancelled;
+
+    /**
+     * @param deadline when the sync has to stop, in {@link SystemClock#elapsedRealtime()} time
+     */
+    SyncCancellation(long deadline) {
+        mDeadline = deadline;
+    }
+
+    static SyncCancellation withTimeout(long timeoutMillis) {
+        return new SyncCancellation(SystemClock.elapsedRealtime() + timeoutMillis);
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mCancelled || isPastDeadline();
+    }
+
+    boolean isPastDeadline() {
+        return SystemClock.elapsedRealtime() >= mDeadline;
+    }
+
+    /**
+     * @return the time left until the deadline, 0 if it has passed
+     */
+    long getRemainingMillis() {
+        return Math.max(0, mDeadline - SystemClock.elapsedRealtime());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps the same location from being fetched several times over when syncs are requested in
+ * quick succession.  A location that is being fetched isn't fetched again: whoever asks for it
+ * meanwhile waits for the fetch under way and gets its result.  A location fetched successfully
+ * a moment ago isn't fetched again either.  Sync requests caused by settings changes are
+ * debounced, so a burst of changes results in one sync.
+ */
+class SyncCoordinator {
+
+    // A location synced successfully this recently is considered up to date
+    static final long DEFAULT_REUSE_WINDOW_MILLIS = 30 * 1000;
+
+    // How long a debounced sync request waits for more requests to fold in
+    static final long DEBOUNCE_MILLIS = 1000;
+
+    private static SyncCoordinator sInstance;
+
+    /**
+     * A fetch that has finished, and when.
+     */
+    private static class CompletedSync {
+
+        final LocationSyncResult mResult;
+
+        final long mCompletedAt;
+
+        CompletedSync(LocationSyncResult result, long completedAt) {
+            mResult = result;
+            mCompletedAt = completedAt;
+        }
+    }
+
+    private final long mReuseWindowMillis;
+
+    // Guarded by this
+    private final Map<SyncLocation, FutureTask<LocationSyncResult>> mInFlight =
+            new HashMap<SyncLocation, FutureTask<LocationSyncResult>>();
+
+    // Guarded by this
+    private final Map<SyncLocation, CompletedSync> mCompleted =
+            new HashMap<SyncLocation, CompletedSync>();
+
+    private Handler mHandler;
+
+    private Runnable mPendingSync;
+
+    SyncCoordinator(long reuseWindowMillis) {
+        mReuseWindowMillis = reuseWindowMillis;
+    }
+
+    /**
+     * @return the coordinator shared by everything in the process that syncs
+     */
+    static synchronized SyncCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncCoordinator(DEFAULT_REUSE_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Syncs a location through {@code syncer}, unless it is being synced already or was synced a
+     * moment ago.  The fetch runs on the calling thread, concurrent callers for the same
+     * location block until it's done.
+     *
+     * @return the result of the fetch.  A result reused from an earlier fetch reports no rows
+     * written, whoever ran that fetch has already told everybody about them.
+     */
+    LocationSyncResult sync(final SyncLocation location,
+            final MultiLocationSyncEngine.LocationSyncer syncer) {
+        FutureTask<LocationSyncResult> task;
+        boolean owner = false;
+        synchronized (this) {
+            CompletedSync completed = mCompleted.get(location);
+            if (completed != null
+                    && SystemClock.elapsedRealtime() - completed.mCompletedAt
+                    < mReuseWindowMillis) {
+                return new LocationSyncResult(location, completed.mResult.mStatus, 0);
+            }
+            task = mInFlight.get(location);
+            if (task == null) {
+                task = new FutureTask<LocationSyncResult>(new Callable<LocationSyncResult>() {
+                    @Override
+                    public LocationSyncResult call() {
+                        return syncer.syncLocation(location);
+                    }
+                });
+                mInFlight.put(location, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            task.run();
+            synchronized (this) {
+                mInFlight.remove(location);
+                LocationSyncResult result = getResult(task, location);
+                if (result.mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                    mCompleted.put(location,
+                            new CompletedSync(result, SystemClock.elapsedRealtime()));
+                } else {
+                    // Failures are worth retrying right away
+                    mCompleted.remove(location);
+                }
+            }
+        }
+        return getResult(task, location);
+    }
+
+    private static LocationSyncResult getResult(FutureTask<LocationSyncResult> task,
+            SyncLocation location) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return LocationSyncResult.failed(location, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Requests a sync once no other debounced request came in for {@link #DEBOUNCE_MILLIS}.
+     * Must be called on the main thread.
+     */
+    void requestDebouncedSync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        if (mPendingSync != null) {
+            mHandler.removeCallbacks(mPendingSync);
+        }
+        mPendingSync = new Runnable() {
+            @Override
+            public void run() {
+                mPendingSync = null;
+                SunshineSyncAdapter.syncImmediately(appContext);
+            }
+        };
+        mHandler.postDelayed(mPendingSync, DEBOUNCE_MILLIS);
+    }
+}
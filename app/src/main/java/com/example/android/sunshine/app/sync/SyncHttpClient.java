@@ -0,0 +1,211 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The small HTTP layer the sync code talks to the weather servers through.
+ *
+ * Requests ask for a gzip encoded body and decode it on the fly, and every connection has connect
+ * and read timeouts so a dead server can't hang a sync.  Connections are never disconnect()ed:
+ * closing a {@link Response} drains whatever is left of the body so HttpURLConnection can put the
+ * socket back into its keep-alive pool, and the next request to the same host within the sync
+ * pass reuses it instead of paying for a new TCP (and TLS) handshake.
+ */
+public class SyncHttpClient {
+
+    private static final String LOG_TAG = SyncHttpClient.class.getSimpleName();
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+    private final int mConnectTimeoutMillis;
+
+    private final int mReadTimeoutMillis;
+
+    // Connections from the start of the request until the response is closed, guarded by itself
+    private final Set<HttpURLConnection> mOpenConnections = new HashSet<HttpURLConnection>();
+
+    public SyncHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Issues a GET request and waits for the response status and headers.  The caller must
+     * {@link Response#close()} the response once done with it, whatever the status.
+     *
+     * @param url            the URL to fetch
+     * @param requestHeaders extra headers to send, may be null
+     */
+    public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        // Setting this ourselves turns off the transparent decompression of HttpURLConnection,
+        // which is what we want: it means we know the body is gzip'ed whatever the platform
+        // version, and Content-Length keeps meaning bytes on the wire.
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        synchronized (mOpenConnections) {
+            mOpenConnections.add(urlConnection);
+        }
+        try {
+            urlConnection.connect();
+            return new Response(this, urlConnection, urlConnection.getResponseCode());
+        } catch (IOException e) {
+            // There's no response to hand back, so nothing could be reused either
+            onClosed(urlConnection);
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Tears down every request in progress.  Whoever is connecting or reading gets an
+     * IOException right away, instead of when the timeouts run out.  Requests made afterwards
+     * work as usual.
+     */
+    public void abortAll() {
+        List<HttpURLConnection> connections;
+        synchronized (mOpenConnections) {
+            connections = new ArrayList<HttpURLConnection>(mOpenConnections);
+            mOpenConnections.clear();
+        }
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+        if (!connections.isEmpty()) {
+            Log.d(LOG_TAG, "Aborted " + connections.size() + " requests");
+        }
+    }
+
+    private void onClosed(HttpURLConnection connection) {
+        synchronized (mOpenConnections) {
+            mOpenConnections.remove(connection);
+        }
+    }
+
+    /**
+     * A response whose status and headers have been received.  The body is read lazily.
+     */
+    public static class Response implements Closeable {
+
+        private final SyncHttpClient mClient;
+
+        private final HttpURLConnection mConnection;
+
+        private final int mCode;
+
+        private InputStream mRawBody;
+
+        private InputStream mBody;
+
+        Response(SyncHttpClient client, HttpURLConnection connection, int code) {
+            mClient = client;
+            mConnection = connection;
+            mCode = code;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded response body
+         * @throws IOException if the server answered with an error status
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mRawBody = mConnection.getInputStream();
+                if (ENCODING_GZIP.equalsIgnoreCase(getHeader(HEADER_CONTENT_ENCODING))) {
+                    mBody = new GZIPInputStream(mRawBody);
+                } else {
+                    mBody = mRawBody;
+                }
+            }
+            return mBody;
+        }
+
+        /**
+         * Reads what is left of the body and closes it, so the connection can go back to the
+         * keep-alive pool.
+         */
+        @Override
+        public void close() {
+            try {
+                drain();
+            } finally {
+                // Until now abortAll() can still cut a slow drain short
+                mClient.onClosed(mConnection);
+            }
+        }
+
+        private void drain() {
+            InputStream rawBody = mRawBody;
+            if (rawBody == null) {
+                // The body was never asked for, or the status was an error
+                rawBody = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : null;
+                if (rawBody == null && mCode != HttpURLConnection.HTTP_NOT_MODIFIED
+                        && mCode >= HttpURLConnection.HTTP_OK
+                        && mCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    try {
+                        rawBody = mConnection.getInputStream();
+                    } catch (IOException e) {
+                        Log.d(LOG_TAG, "Error opening body to drain it", e);
+                    }
+                }
+            }
+            if (rawBody == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                while (rawBody.read(buffer) != -1) {
+                    // discard
+                }
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Error draining response body", e);
+            } finally {
+                try {
+                    rawBody.close();
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
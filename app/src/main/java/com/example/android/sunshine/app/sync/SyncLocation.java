@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.Utility;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A location the sync adapter fetches the forecast for: the location setting it is stored under,
+ * and for a Place Picker location, the latitude and longitude to query the weather service with.
+ */
+public class SyncLocation {
+
+    final String mLocationSetting;
+
+    final boolean mHasLatLon;
+
+    final float mLatitude;
+
+    final float mLongitude;
+
+    SyncLocation(String locationSetting, boolean hasLatLon, float latitude, float longitude) {
+        mLocationSetting = locationSetting;
+        mHasLatLon = hasLatLon;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /**
+     * A location known only by its location setting.
+     */
+    static SyncLocation forLocationSetting(String locationSetting) {
+        return new SyncLocation(locationSetting, false, Utility.DEFAULT_LATLONG,
+                Utility.DEFAULT_LATLONG);
+    }
+
+    /**
+     * The location chosen in the settings, along with its Place Picker lat/lon if it has them.
+     */
+    static SyncLocation forPreferredLocation(Context context) {
+        return new SyncLocation(Utility.getPreferredLocation(context),
+                Utility.isLocationLatLonAvailable(context),
+                Utility.getLocationLatitude(context),
+                Utility.getLocationLongitude(context));
+    }
+
+    /**
+     * @return the preferred location followed by the saved ones, without duplicates.
+     */
+    static List<SyncLocation> getLocationsToSync(Context context) {
+        List<SyncLocation> locations = new ArrayList<SyncLocation>();
+        SyncLocation preferred = forPreferredLocation(context);
+        locations.add(preferred);
+        for (String locationSetting : Utility.getSavedLocations(context)) {
+            if (!locationSetting.equals(preferred.mLocationSetting)) {
+                locations.add(forLocationSetting(locationSetting));
+            }
+        }
+        return locations;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SyncLocation
+                && mLocationSetting.equals(((SyncLocation) o).mLocationSetting);
+    }
+
+    @Override
+    public int hashCode() {
+        return mLocationSetting.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mLocationSetting;
+    }
+}
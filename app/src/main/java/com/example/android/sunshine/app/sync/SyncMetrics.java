@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the timings of one sync and writes them to the sync metrics table.  Phases are
+ * recorded from whichever thread ran them and written in batches with {@link #flush}, which also
+ * drops the records of all but the last {@link #MAX_SYNCS_KEPT} syncs.
+ */
+class SyncMetrics {
+
+    // How many syncs worth of records the table keeps
+    static final int MAX_SYNCS_KEPT = 20;
+
+    private final long mSyncStart;
+
+    private final List<ContentValues> mPending = new ArrayList<ContentValues>();
+
+    // Bytes of the recorded phases by location, the key null holding the total
+    private final Map<String, Long> mBytes = new HashMap<String, Long>();
+
+    /**
+     * @param syncStart when the sync started, in milliseconds since the epoch.  Every record of
+     *                  the sync is stored under it.
+     */
+    SyncMetrics(long syncStart) {
+        mSyncStart = syncStart;
+    }
+
+    /**
+     * Records a phase.  The bytes of phases other than {@link SyncMetricsEntry#PHASE_SYNC} and
+     * {@link SyncMetricsEntry#PHASE_LOCATION} are added up for {@link #getBytes}.
+     *
+     * @param locationSetting the location the phase was for, null if it covers the whole sync
+     * @param outcome         a location status, or one of the OUTCOME_ values of
+     *                        {@link SyncMetricsEntry}
+     */
+    synchronized void record(String phase, String locationSetting, long durationMillis,
+            long bytes, int outcome) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_SYNC_START, mSyncStart);
+        values.put(SyncMetricsEntry.COLUMN_PHASE, phase);
+        values.put(SyncMetricsEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(SyncMetricsEntry.COLUMN_DURATION, durationMillis);
+        values.put(SyncMetricsEntry.COLUMN_BYTES, bytes);
+        values.put(SyncMetricsEntry.COLUMN_OUTCOME, outcome);
+        mPending.add(values);
+
+        if (bytes > 0 && !SyncMetricsEntry.PHASE_SYNC.equals(phase)
+                && !SyncMetricsEntry.PHASE_LOCATION.equals(phase)) {
+            addBytes(locationSetting, bytes);
+            if (locationSetting != null) {
+                addBytes(null, bytes);
+            }
+        }
+    }
+
+    private void addBytes(String locationSetting, long bytes) {
+        Long sum = mBytes.get(locationSetting);
+        mBytes.put(locationSetting, sum == null ? bytes : sum + bytes);
+    }
+
+    /**
+     * @param locationSetting the location to add up, or null for the whole sync
+     * @return the bytes recorded so far
+     */
+    synchronized long getBytes(String locationSetting) {
+        Long sum = mBytes.get(locationSetting);
+        return sum == null ? 0 : sum;
+    }
+
+    /**
+     * Writes the phases recorded since the last flush, and trims the table.  Can be called
+     * again when more phases have been recorded.
+     */
+    void flush(ContentResolver resolver) {
+        ContentValues[] pending;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            pending = mPending.toArray(new ContentValues[mPending.size()]);
+            mPending.clear();
+        }
+        resolver.bulkInsert(SyncMetricsEntry.CONTENT_URI, pending);
+        trim(resolver, MAX_SYNCS_KEPT);
+    }
+
+    /**
+     * Deletes the records of all but the {@code syncsKept} most recent syncs.
+     *
+     * @return the number of rows deleted
+     */
+    static int trim(ContentResolver resolver, int syncsKept) {
+        return resolver.delete(SyncMetricsEntry.CONTENT_URI,
+                SyncMetricsEntry.COLUMN_SYNC_START + " NOT IN (SELECT DISTINCT "
+                        + SyncMetricsEntry.COLUMN_SYNC_START + " FROM "
+                        + SyncMetricsEntry.TABLE_NAME + " ORDER BY "
+                        + SyncMetricsEntry.COLUMN_SYNC_START + " DESC LIMIT ?)",
+                new String[]{Integer.toString(syncsKept)});
+    }
+}
@@ -10,6 +10,7 @@ import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
@@ -25,15 +26,17 @@ import android.util.Log;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by vineet on 17-Jul-16.
  */
 public class SyncWithWear {
 
-    private static final int IMG_WIDTH = 100;
+    static final int IMG_WIDTH = 100;
 
-    private static final int IMG_HEIGHT = 100;
+    static final int IMG_HEIGHT = 100;
 
     public final String LOG_TAG = SyncWithWear.class.getSimpleName();
 
@@ -62,9 +65,10 @@ public class SyncWithWear {
                         .asBitmap()
                         .error(artResourceId)
                         .fitCenter()
+                        .diskCacheStrategy(DiskCacheStrategy.ALL)
                         .into(IMG_WIDTH, IMG_HEIGHT)
-                        .get();
-            } catch (InterruptedException | ExecutionException e) {
+                        .get(SunshineSyncAdapter.ART_FETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
                 Log.d(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                 largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
             }
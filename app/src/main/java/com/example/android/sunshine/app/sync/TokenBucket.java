@@ -0,0 +1,98 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Limits how often the app calls the weather API.  The bucket holds up to a burst of tokens and
+ * refills at a steady rate, every request takes a token, and a request that finds the bucket empty
+ * isn't made.  All sync triggers share the one API key, so they all share the one bucket.
+ *
+ * The bucket is kept in the shared preferences, a process that is restarted over and over doesn't
+ * get a fresh burst every time.
+ */
+class TokenBucket {
+
+    private static final String KEY_PREFIX = "token-bucket-";
+    private static final String KEY_TOKENS = "-tokens";
+    private static final String KEY_REFILLED_AT = "-refilled-at";
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    private static TokenBucket sApiKeyBucket;
+
+    private final SharedPreferences mPrefs;
+
+    private final String mKey;
+
+    private final double mTokensPerHour;
+
+    private final int mBurst;
+
+    private double mTokens;
+
+    // When tokens were last added, in milliseconds since the epoch
+    private long mRefilledAt;
+
+    /**
+     * @param tokensPerHour the steady rate requests are allowed at
+     * @param burst         how many requests can be made at once after a quiet spell.  A new
+     *                      bucket starts full.
+     */
+    TokenBucket(SharedPreferences prefs, String name, double tokensPerHour, int burst) {
+        mPrefs = prefs;
+        mKey = KEY_PREFIX + name;
+        mTokensPerHour = tokensPerHour;
+        mBurst = burst;
+        mTokens = Math.min(prefs.getFloat(mKey + KEY_TOKENS, burst), burst);
+        mRefilledAt = prefs.getLong(mKey + KEY_REFILLED_AT, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the bucket of the OpenWeatherMap API key, sized by the build's
+     * OWM_REQUESTS_PER_HOUR and OWM_REQUEST_BURST
+     */
+    static synchronized TokenBucket forApiKey(Context context) {
+        if (sApiKeyBucket == null) {
+            sApiKeyBucket = new TokenBucket(PreferenceManager.getDefaultSharedPreferences(context),
+                    "owm", BuildConfig.OWM_REQUESTS_PER_HOUR, BuildConfig.OWM_REQUEST_BURST);
+        }
+        return sApiKeyBucket;
+    }
+
+    /**
+     * Takes {@code count} tokens if there are that many.
+     *
+     * @return whether the requests may be made
+     */
+    synchronized boolean tryAcquire(int count) {
+        refill();
+        boolean acquired = mTokens >= count;
+        if (acquired) {
+            mTokens -= count;
+        }
+        save();
+        return acquired;
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        if (now < mRefilledAt) {
+            // The clock was set back, start counting from here
+            mRefilledAt = now;
+            return;
+        }
+        mTokens = Math.min(mBurst, mTokens + (now - mRefilledAt) * mTokensPerHour / HOUR_IN_MILLIS);
+        mRefilledAt = now;
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putFloat(mKey + KEY_TOKENS, (float) mTokens)
+                .putLong(mKey + KEY_REFILLED_AT, mRefilledAt)
+                .apply();
+    }
+}
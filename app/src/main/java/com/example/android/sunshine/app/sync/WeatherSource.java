@@ -0,0 +1,87 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import android.content.ContentValues;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Somewhere the daily forecast of a location can be fetched from.  Whatever the source speaks,
+ * the forecast comes back as the rows the weather table stores, so the sync doesn't need to know
+ * where it came from.
+ */
+interface WeatherSource {
+
+    /**
+     * @return a short name for logs and metrics
+     */
+    String getName();
+
+    /**
+     * Fetches the forecast of a location.  Called on the sync engine's threads, possibly for
+     * several locations at once.
+     *
+     * @param validators what we know about the forecast we already have, so the source can say
+     *                   it hasn't changed instead of sending it again
+     * @param metrics    where the timings of the fetch are recorded
+     * @throws IOException   if the source couldn't be reached, or stopped answering
+     * @throws JSONException if the source answered with something we can't read
+     */
+    Forecast fetchForecast(SyncLocation location, ForecastValidators validators,
+            SyncMetrics metrics) throws IOException, JSONException;
+
+    /**
+     * A forecast as a source answered it.
+     */
+    class Forecast implements ForecastJsonReader.Callback {
+
+        @SunshineSyncAdapter.LocationStatus
+        int mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+
+        // The forecast we have is still current, nothing else is set
+        boolean mNotModified;
+
+        // Of the response, for asking whether it changed next time
+        ForecastValidators mValidators = ForecastValidators.NONE;
+
+        long mCityId = -1;
+
+        String mCityName;
+
+        double mCityLatitude;
+
+        double mCityLongitude;
+
+        // One ContentValues per day, starting today, holding the weather columns without location
+        // key and date
+        final List<ContentValues> mDays = new ArrayList<ContentValues>();
+
+        static Forecast notModified() {
+            Forecast forecast = new Forecast();
+            forecast.mNotModified = true;
+            return forecast;
+        }
+
+        static Forecast failed(@SunshineSyncAdapter.LocationStatus int status) {
+            Forecast forecast = new Forecast();
+            forecast.mStatus = status;
+            return forecast;
+        }
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            mCityId = cityId;
+            mCityName = cityName;
+            mCityLatitude = lat;
+            mCityLongitude = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues weatherValues) {
+            mDays.add(weatherValues);
+        }
+    }
+}
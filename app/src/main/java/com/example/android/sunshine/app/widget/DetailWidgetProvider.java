@@ -15,6 +15,7 @@ import android.widget.RemoteViews;
 import com.example.android.sunshine.app.DetailActivity;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -23,6 +24,9 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetProvider extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // Placed on the home screen, or back after a reboot
+        AdaptiveSyncScheduler.onWeatherViewed(context);
+
         // Perform this loop procedure for each App Widget that belongs to this provider
         for (int appWidgetId : appWidgetIds) {
             RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_detail);
@@ -58,6 +62,7 @@ public class DetailWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+            // Sent by the sync, not a view, see AdaptiveSyncScheduler.onWeatherViewed
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
                     new ComponentName(context, getClass()));
@@ -13,6 +13,7 @@ import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
@@ -105,6 +106,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                                 .load(weatherArtResourceUrl)
                                 .asBitmap()
                                 .error(weatherArtResourceId)
+                                .diskCacheStrategy(DiskCacheStrategy.ALL)
                                 .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
                     } catch (InterruptedException | ExecutionException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.app.sync.AdaptiveSyncScheduler;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -34,12 +35,16 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // Placed on the home screen, or back after a reboot
+        AdaptiveSyncScheduler.onWeatherViewed(context);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
+        // Resized by the user
+        AdaptiveSyncScheduler.onWeatherViewed(context);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
@@ -47,6 +52,7 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+            // Sent by the sync, not a view, see AdaptiveSyncScheduler.onWeatherViewed
             context.startService(new Intent(context, TodayWidgetIntentService.class));
         }
     }